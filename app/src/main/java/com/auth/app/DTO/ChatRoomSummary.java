@@ -0,0 +1,7 @@
+package com.auth.app.DTO;
+
+import java.util.Date;
+
+public record ChatRoomSummary(String id, String roomName, int memberCount, long lastSeq, String lastMessagePreview,
+                              String lastMessageSender, Date lastActivityAt, long unreadCount) {
+}
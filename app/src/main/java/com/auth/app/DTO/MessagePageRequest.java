@@ -0,0 +1,4 @@
+package com.auth.app.DTO;
+
+public record MessagePageRequest(String roomId, String before, String after, Integer limit) {
+}
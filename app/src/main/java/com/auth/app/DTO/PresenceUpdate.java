@@ -0,0 +1,7 @@
+package com.auth.app.DTO;
+
+import java.io.Serializable;
+import java.util.List;
+
+public record PresenceUpdate(String roomId, List<String> online, List<String> typing) implements Serializable {
+}
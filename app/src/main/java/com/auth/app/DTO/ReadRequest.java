@@ -0,0 +1,4 @@
+package com.auth.app.DTO;
+
+public record ReadRequest(String roomId, long seq) {
+}
@@ -0,0 +1,6 @@
+package com.auth.app.DTO;
+
+import java.util.Map;
+
+public record ResumeRequest(Map<String, Long> lastSeen) {
+}
@@ -0,0 +1,6 @@
+package com.auth.app.DTO;
+
+import com.auth.app.model.Message;
+
+public record SearchHit(Message message, float score) {
+}
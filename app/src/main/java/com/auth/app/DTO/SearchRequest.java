@@ -0,0 +1,4 @@
+package com.auth.app.DTO;
+
+public record SearchRequest(String query, String roomId, Integer page, Integer limit) {
+}
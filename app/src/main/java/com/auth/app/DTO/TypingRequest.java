@@ -0,0 +1,4 @@
+package com.auth.app.DTO;
+
+public record TypingRequest(String roomId, boolean typing) {
+}
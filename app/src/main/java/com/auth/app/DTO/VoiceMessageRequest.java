@@ -1,6 +1,4 @@
 package com.auth.app.DTO;
 
-import org.bson.types.Binary;
-
-public record VoiceMessageRequest(String roomId, Binary voiceMessage) {
+public record VoiceMessageRequest(String roomId, String contentType, long length) {
 }
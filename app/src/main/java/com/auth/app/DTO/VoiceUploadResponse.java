@@ -0,0 +1,4 @@
+package com.auth.app.DTO;
+
+public record VoiceUploadResponse(String uploadId, long received, long length, int maxChunkBytes) {
+}
@@ -0,0 +1,144 @@
+package com.auth.app.cluster;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Publishes objects to the other nodes of the cluster. Payloads are Java-serialized, and only the known event
+ * classes are read back, within fixed size and depth limits. A node never receives what it published itself, so
+ * each message is handled once on every other node. Without a configured {@link ClusterTransport} the
+ * application runs standalone and publishing does nothing.
+ */
+@Log4j2
+@Component
+public class ClusterBus {
+
+    private record Envelope(String nodeId, Object payload) implements Serializable {
+    }
+
+    // Every class the published payloads are made of, nothing else may be deserialized off the shared transport
+    private static final List<String> ALLOWED_CLASSES = List.of(
+            "com.auth.app.cluster.ClusterBus$Envelope",
+            "com.auth.app.model.Message",
+            "com.auth.app.model.Attachment",
+            "com.auth.app.service.PresenceService$NodePresence",
+            "com.auth.app.DTO.PresenceUpdate",
+            "com.auth.app.service.PreEncodedJson",
+            "com.fasterxml.jackson.core.io.SerializedString",
+            // The socket.io relay of joins, leaves and room broadcasts
+            "com.corundumstudio.socketio.store.pubsub.PubSubMessage",
+            "com.corundumstudio.socketio.store.pubsub.DispatchMessage",
+            "com.corundumstudio.socketio.store.pubsub.JoinLeaveMessage",
+            "com.corundumstudio.socketio.store.pubsub.BulkJoinLeaveMessage",
+            "com.corundumstudio.socketio.store.pubsub.ConnectMessage",
+            "com.corundumstudio.socketio.store.pubsub.DisconnectMessage",
+            "com.corundumstudio.socketio.protocol.Packet",
+            "com.corundumstudio.socketio.protocol.PacketType",
+            "com.corundumstudio.socketio.protocol.EngineIOVersion",
+            // Only matches Object[], the backing array of some list types, never a subclass
+            "java.lang.Object",
+            "java.lang.Enum",
+            "java.lang.Number",
+            "java.lang.Long",
+            "java.lang.Integer",
+            "java.lang.Boolean",
+            "java.util.Date",
+            "java.util.UUID",
+            "java.util.ArrayList",
+            "java.util.Arrays$ArrayList",
+            "java.util.CollSer",
+            "java.util.Collections$EmptyList",
+            "java.util.Collections$EmptySet",
+            "java.util.Collections$SingletonList",
+            "java.util.Collections$SingletonSet",
+            "java.util.Collections$UnmodifiableCollection",
+            "java.util.Collections$UnmodifiableList",
+            "java.util.Collections$UnmodifiableRandomAccessList",
+            "java.util.Collections$UnmodifiableSet",
+            "java.util.HashSet",
+            "java.util.ImmutableCollections$List12",
+            "java.util.ImmutableCollections$ListN",
+            "java.util.ImmutableCollections$Set12",
+            "java.util.ImmutableCollections$SetN",
+            "java.util.LinkedHashSet");
+
+    // Bounds on the object graph, so a crafted event cannot exhaust memory or the stack while it is read
+    private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=16;maxrefs=10000;maxarray=4194304;maxbytes=8388608;" + String.join(";", ALLOWED_CLASSES) + ";!*");
+
+    private final ClusterTransport transport;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    public ClusterBus(Optional<ClusterTransport> transport) {
+        this.transport = transport.orElse(null);
+    }
+
+    public boolean isClustered() {
+        return transport != null;
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    public void publish(String channel, Serializable payload) {
+        if (transport != null) {
+            transport.publish(channel, encode(new Envelope(nodeId, payload)));
+        }
+    }
+
+    public <T> void subscribe(String channel, Class<T> type, Consumer<T> listener) {
+        if (transport == null) {
+            return;
+        }
+        transport.subscribe(channel, bytes -> {
+            Envelope envelope = decode(bytes);
+            if (nodeId.equals(envelope.nodeId())) {
+                return;
+            }
+            if (!type.isInstance(envelope.payload())) {
+                log.warn("Dropping " + envelope.payload().getClass().getName() + " received on " + channel);
+                return;
+            }
+            listener.accept(type.cast(envelope.payload()));
+        });
+    }
+
+    public void unsubscribe(String channel) {
+        if (transport != null) {
+            transport.unsubscribe(channel);
+        }
+    }
+
+    private static byte[] encode(Envelope envelope) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(envelope);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not serialize cluster message", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Envelope decode(byte[] bytes) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            in.setObjectInputFilter(FILTER);
+            return (Envelope) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Could not read cluster message", e);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.auth.app.cluster;
+
+import com.corundumstudio.socketio.store.MemoryStore;
+import com.corundumstudio.socketio.store.Store;
+import com.corundumstudio.socketio.store.pubsub.BaseStoreFactory;
+import com.corundumstudio.socketio.store.pubsub.PubSubListener;
+import com.corundumstudio.socketio.store.pubsub.PubSubMessage;
+import com.corundumstudio.socketio.store.pubsub.PubSubStore;
+import com.corundumstudio.socketio.store.pubsub.PubSubType;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Socket.io store factory for clustered mode. Session data stays on the node holding the connection, while
+ * joins, leaves and room broadcasts are relayed through the {@link ClusterBus} so every node delivers them to
+ * its own clients.
+ */
+public class ClusterStoreFactory extends BaseStoreFactory {
+
+    private static final String CHANNEL_PREFIX = "socketio.";
+
+    private final PubSubStore pubSubStore;
+
+    public ClusterStoreFactory(ClusterBus clusterBus) {
+        this.pubSubStore = new PubSubStore() {
+            @Override
+            public void publish(PubSubType type, PubSubMessage message) {
+                clusterBus.publish(CHANNEL_PREFIX + type, message);
+            }
+
+            @Override
+            public <T extends PubSubMessage> void subscribe(PubSubType type, PubSubListener<T> listener, Class<T> messageType) {
+                clusterBus.subscribe(CHANNEL_PREFIX + type, messageType, listener::onMessage);
+            }
+
+            @Override
+            public void unsubscribe(PubSubType type) {
+                clusterBus.unsubscribe(CHANNEL_PREFIX + type);
+            }
+
+            @Override
+            public void shutdown() {
+                for (PubSubType type : PubSubType.values()) {
+                    unsubscribe(type);
+                }
+            }
+        };
+    }
+
+    @Override
+    public PubSubStore pubSubStore() {
+        return pubSubStore;
+    }
+
+    @Override
+    public Store createStore(UUID sessionId) {
+        return new MemoryStore();
+    }
+
+    @Override
+    public <K, V> Map<K, V> createMap(String name) {
+        return new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void shutdown() {
+        pubSubStore.shutdown();
+    }
+}
@@ -0,0 +1,19 @@
+package com.auth.app.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * Moves opaque payloads between the nodes of a cluster. A published payload is delivered to every node's
+ * listeners for that channel, including the publisher's own, once each.
+ */
+public interface ClusterTransport extends AutoCloseable {
+
+    void publish(String channel, byte[] payload);
+
+    void subscribe(String channel, Consumer<byte[]> listener);
+
+    void unsubscribe(String channel);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,49 @@
+package com.auth.app.cluster;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Loopback transport for tests and single-process runs. Every transport created on the same {@link Hub} acts as
+ * one node, and payloads are delivered synchronously on the publishing thread.
+ */
+public class InProcessClusterTransport implements ClusterTransport {
+
+    public static final class Hub {
+        private final List<InProcessClusterTransport> nodes = new CopyOnWriteArrayList<>();
+    }
+
+    private final Hub hub;
+    private final Map<String, List<Consumer<byte[]>>> listeners = new ConcurrentHashMap<>();
+
+    public InProcessClusterTransport(Hub hub) {
+        this.hub = hub;
+        hub.nodes.add(this);
+    }
+
+    @Override
+    public void publish(String channel, byte[] payload) {
+        for (InProcessClusterTransport node : hub.nodes) {
+            node.listeners.getOrDefault(channel, List.of()).forEach(listener -> listener.accept(payload.clone()));
+        }
+    }
+
+    @Override
+    public void subscribe(String channel, Consumer<byte[]> listener) {
+        listeners.computeIfAbsent(channel, key -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    @Override
+    public void unsubscribe(String channel) {
+        listeners.remove(channel);
+    }
+
+    @Override
+    public void close() {
+        hub.nodes.remove(this);
+        listeners.clear();
+    }
+}
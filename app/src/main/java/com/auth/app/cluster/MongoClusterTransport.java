@@ -0,0 +1,129 @@
+package com.auth.app.cluster;
+
+import com.mongodb.CursorType;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import lombok.extern.log4j.Log4j2;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Transport over a capped Mongo collection that every node tails, so a cluster needs nothing besides the
+ * database it already shares. Event ids are generated by the publishers, so when a cursor has to be reopened
+ * it resumes a little before the newest event seen to tolerate clock skew, and already delivered ids are skipped.
+ */
+@Log4j2
+public class MongoClusterTransport implements ClusterTransport {
+
+    private static final long RESUME_OVERLAP_MILLIS = 10_000;
+    private static final int SEEN_CAPACITY = 100_000;
+    private static final long RETRY_DELAY_MILLIS = 200;
+
+    private final MongoCollection<Document> events;
+    private final Map<String, List<Consumer<byte[]>>> listeners = new ConcurrentHashMap<>();
+    // Only touched by the tailing thread
+    private final Set<ObjectId> seen = Collections.newSetFromMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ObjectId, Boolean> eldest) {
+            return size() > SEEN_CAPACITY;
+        }
+    });
+    private final long startedAt = System.currentTimeMillis();
+    private final Thread tailer;
+    private volatile boolean running = true;
+    private long newestSeenAt = startedAt;
+
+    public MongoClusterTransport(MongoTemplate mongoTemplate, String collectionName, long capBytes) {
+        if (!mongoTemplate.collectionExists(collectionName)) {
+            try {
+                mongoTemplate.createCollection(collectionName, CollectionOptions.empty().capped().size(capBytes));
+            } catch (DataAccessException e) {
+                // Another node created it first
+                log.debug("Cluster collection " + collectionName + " already exists", e);
+            }
+        }
+        this.events = mongoTemplate.getCollection(collectionName);
+        this.tailer = new Thread(this::tail, "cluster-tail");
+        this.tailer.setDaemon(true);
+        this.tailer.start();
+    }
+
+    @Override
+    public void publish(String channel, byte[] payload) {
+        events.insertOne(new Document("channel", channel).append("payload", new Binary(payload)));
+    }
+
+    @Override
+    public void subscribe(String channel, Consumer<byte[]> listener) {
+        listeners.computeIfAbsent(channel, key -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    @Override
+    public void unsubscribe(String channel) {
+        listeners.remove(channel);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        tailer.interrupt();
+    }
+
+    private void tail() {
+        while (running) {
+            long resumeAt = Math.max(startedAt, newestSeenAt - RESUME_OVERLAP_MILLIS);
+            try (MongoCursor<Document> cursor = events.find(Filters.gte("_id", ObjectId.getSmallestWithDate(new Date(resumeAt))))
+                    .cursorType(CursorType.TailableAwait)
+                    .maxAwaitTime(1, TimeUnit.SECONDS)
+                    .iterator()) {
+                while (running && cursor.hasNext()) {
+                    deliver(cursor.next());
+                }
+            } catch (MongoException e) {
+                if (running) {
+                    log.warn("Cluster event cursor failed, reopening", e);
+                }
+            }
+            // A tailable cursor over an empty result is closed straight away, so wait before asking again
+            try {
+                Thread.sleep(RETRY_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void deliver(Document event) {
+        ObjectId id = event.getObjectId("_id");
+        if (!seen.add(id)) {
+            return;
+        }
+        newestSeenAt = Math.max(newestSeenAt, id.getDate().getTime());
+        byte[] payload = event.get("payload", Binary.class).getData();
+        for (Consumer<byte[]> listener : listeners.getOrDefault(event.getString("channel"), List.of())) {
+            try {
+                listener.accept(payload);
+            } catch (RuntimeException e) {
+                log.error("Cluster listener for " + event.getString("channel") + " failed", e);
+            }
+        }
+    }
+}
@@ -1,17 +1,26 @@
 package com.auth.app.config;
 
+import com.auth.app.service.PasswordHasher;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
-import org.springframework.security.crypto.password.PasswordEncoder;
 
 @Configuration
 public class AppConfig {
-    @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    @Bean(destroyMethod = "shutdown")
+    public PasswordHasher passwordEncoder(MeterRegistry meterRegistry,
+                                          @Value("${chat.auth.bcrypt.strength:0}") int strength,
+                                          @Value("${chat.auth.bcrypt.target-ms:250}") long targetMillis,
+                                          @Value("${chat.auth.hash-threads:0}") int threads,
+                                          @Value("${chat.auth.hash-queue:64}") int queueCapacity,
+                                          @Value("${chat.auth.hash-timeout-ms:5000}") long timeoutMillis) {
+        // 0 picks the cost for the target latency and half the cores for hashing
+        return new PasswordHasher(strength > 0 ? strength : PasswordHasher.calibrate(targetMillis),
+                threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+                queueCapacity, timeoutMillis, meterRegistry);
     }
     @Bean
     public AuthenticationManager authenticationManager(AuthenticationConfiguration configuration) throws Exception {
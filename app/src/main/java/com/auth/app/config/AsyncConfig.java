@@ -0,0 +1,42 @@
+package com.auth.app.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class AsyncConfig implements WebMvcConfigurer {
+
+    // Room exports stream for as long as the room takes to write, the container's default would cut them off
+    @Value("${chat.export.timeout-minutes:60}")
+    private long timeoutMinutes;
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(TimeUnit.MINUTES.toMillis(timeoutMinutes));
+    }
+
+    /**
+     * Runs socket message sends that have to wait on Mongo, so they never block a netty event loop thread.
+     * The queue is bounded, a full queue turns sends away instead of piling them up.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService messageSendExecutor(@Value("${chat.messages.send-threads:8}") int threads,
+                                               @Value("${chat.messages.send-queue:10000}") int queueCapacity) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                task -> {
+                    Thread thread = new Thread(task, "message-send-" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+}
@@ -0,0 +1,32 @@
+package com.auth.app.config;
+
+import com.auth.app.cluster.ClusterTransport;
+import com.auth.app.cluster.InProcessClusterTransport;
+import com.auth.app.cluster.MongoClusterTransport;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Selects the transport for clustered mode with {@code socket.cluster.transport}. Without the property no
+ * transport is created and the node runs standalone.
+ */
+@Configuration
+public class ClusterConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "socket.cluster.transport", havingValue = "mongo")
+    public ClusterTransport mongoClusterTransport(MongoTemplate mongoTemplate,
+                                                  @Value("${socket.cluster.collection:clusterEvents}") String collection,
+                                                  @Value("${socket.cluster.cap-bytes:67108864}") long capBytes) {
+        return new MongoClusterTransport(mongoTemplate, collection, capBytes);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "socket.cluster.transport", havingValue = "in-process")
+    public ClusterTransport inProcessClusterTransport() {
+        return new InProcessClusterTransport(new InProcessClusterTransport.Hub());
+    }
+}
@@ -0,0 +1,126 @@
+package com.auth.app.config;
+
+import com.auth.app.model.ArchiveSegment;
+import com.auth.app.model.BlobReference;
+import com.auth.app.model.ChatRoom;
+import com.auth.app.model.Message;
+import com.auth.app.model.OutboxEmail;
+import com.auth.app.model.ReadWatermark;
+import com.auth.app.repository.ChatRoomRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+@Log4j2
+@Configuration
+@RequiredArgsConstructor
+public class MongoConfig {
+
+    // Spring Boot no longer creates annotated indexes automatically, so the ones the queries rely on are ensured here
+    private static final List<Class<?>> INDEXED_DOCUMENTS = List.of(Message.class, ChatRoom.class, ReadWatermark.class, BlobReference.class,
+            ArchiveSegment.class, OutboxEmail.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final ChatRoomRepository chatRoomRepository;
+    @Value("${chat.migration.embedded-messages:true}")
+    private boolean migrateEmbeddedMessages;
+
+    /**
+     * Moves messages still embedded in room documents into the messages collection. Each embedded message is
+     * upserted by its id with the room id and a sequence number, then the array is removed from the room, so a
+     * migration cut short is simply repeated on the next start. Runs before the socket server starts taking messages.
+     */
+    @PostConstruct
+    public void migrateEmbeddedMessages() {
+        if (!migrateEmbeddedMessages) {
+            return;
+        }
+        String rooms = mongoTemplate.getCollectionName(ChatRoom.class);
+        Query legacy = new Query(Criteria.where("messages").exists(true));
+        legacy.fields().include("_id", "messages");
+        int migrated = 0;
+        try (Stream<Document> stream = mongoTemplate.stream(legacy, Document.class, rooms)) {
+            for (Document room : (Iterable<Document>) stream::iterator) {
+                migrated += migrateRoom(room, rooms);
+            }
+        }
+        if (migrated > 0) {
+            log.info("Moved " + migrated + " embedded messages into the messages collection");
+        }
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void ensureIndexes() {
+        IndexResolver resolver = new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext());
+        // A collection has at most one text index, so the old collection-wide one goes before the per-room one is built
+        IndexOperations messageIndexes = mongoTemplate.indexOps(Message.class);
+        messageIndexes.getIndexInfo().stream()
+                .filter(index -> index.getIndexFields().stream().anyMatch(IndexField::isText))
+                .filter(index -> !Message.TEXT_INDEX.equals(index.getName()))
+                .forEach(index -> messageIndexes.dropIndex(index.getName()));
+        for (Class<?> document : INDEXED_DOCUMENTS) {
+            IndexOperations indexOps = mongoTemplate.indexOps(document);
+            resolver.resolveIndexFor(document).forEach(indexOps::ensureIndex);
+        }
+    }
+
+    private int migrateRoom(Document room, String rooms) {
+        Object roomKey = room.get("_id");
+        String roomId = roomKey.toString();
+        List<Document> embedded = room.getList("messages", Document.class, List.of());
+        if (!embedded.isEmpty()) {
+            // Legacy messages predate anything already numbered in the room, so they take the numbers just below it
+            Message oldest = mongoTemplate.findOne(new Query(Criteria.where("roomId").is(roomId))
+                    .with(Sort.by(Sort.Direction.ASC, "seq")).limit(1), Message.class);
+            long firstSeq = (oldest != null ? oldest.getSeq() : embedded.size() + 1) - embedded.size();
+
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Message.class);
+            Document last = null;
+            for (int i = 0; i < embedded.size(); i++) {
+                Document message = embedded.get(i);
+                Object id = message.get("_id");
+                if (id == null) {
+                    // History pages by id, so a missing one is derived from the send time to keep the order
+                    Date sentAt = message.getDate("sentAt");
+                    id = sentAt != null ? new ObjectId(sentAt) : new ObjectId();
+                }
+                Update update = new Update()
+                        .set("roomId", roomId)
+                        .set("seq", firstSeq + i);
+                for (String field : List.of("text", "sender", "sentAt", "voiceMessage")) {
+                    if (message.containsKey(field)) {
+                        update.set(field, message.get(field));
+                    }
+                }
+                bulk.upsert(new Query(Criteria.where("_id").is(id)), update);
+                last = new Document(message).append("_id", id).append("roomId", roomId).append("seq", firstSeq + i);
+            }
+            bulk.execute();
+            if (oldest == null) {
+                chatRoomRepository.updateHeads(List.of(mongoTemplate.getConverter().read(Message.class, last)));
+            }
+        }
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(roomKey)), new Update().unset("messages"), rooms);
+        return embedded.size();
+    }
+}
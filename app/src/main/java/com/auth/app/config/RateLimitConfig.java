@@ -0,0 +1,56 @@
+package com.auth.app.config;
+
+import com.auth.app.ratelimit.Bandwidth;
+import com.auth.app.ratelimit.LocalRateLimitStore;
+import com.auth.app.ratelimit.MongoRateLimitStore;
+import com.auth.app.ratelimit.RateLimitFilter;
+import com.auth.app.ratelimit.RateLimitStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.time.Clock;
+
+/**
+ * Rate limits for the authentication endpoints. {@code chat.auth.rate-limit.store=mongo} shares the buckets between
+ * nodes, otherwise every node keeps its own.
+ */
+@Configuration
+public class RateLimitConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "chat.auth.rate-limit.store", havingValue = "local", matchIfMissing = true)
+    public RateLimitStore localRateLimitStore() {
+        return new LocalRateLimitStore();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "chat.auth.rate-limit.store", havingValue = "mongo")
+    public RateLimitStore mongoRateLimitStore(MongoTemplate mongoTemplate,
+                                              @Value("${chat.auth.rate-limit.collection:rateLimits}") String collection) {
+        return new MongoRateLimitStore(mongoTemplate, collection);
+    }
+
+    @Bean
+    public RateLimitFilter rateLimitFilter(RateLimitStore store, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                                           @Value("${chat.auth.rate-limit.address.capacity:20}") int addressCapacity,
+                                           @Value("${chat.auth.rate-limit.address.per-minute:20}") int addressPerMinute,
+                                           @Value("${chat.auth.rate-limit.account.capacity:5}") int accountCapacity,
+                                           @Value("${chat.auth.rate-limit.account.per-minute:5}") int accountPerMinute) {
+        return new RateLimitFilter(store, objectMapper, meterRegistry, Clock.systemUTC(),
+                Bandwidth.perMinute(addressCapacity, addressPerMinute), Bandwidth.perMinute(accountCapacity, accountPerMinute));
+    }
+
+    // The filter runs inside the security chain, registering it with the servlet container as well would run it twice
+    @Bean
+    public FilterRegistrationBean<RateLimitFilter> rateLimitFilterRegistration(RateLimitFilter rateLimitFilter) {
+        FilterRegistrationBean<RateLimitFilter> registration = new FilterRegistrationBean<>(rateLimitFilter);
+        registration.setEnabled(false);
+        return registration;
+    }
+}
@@ -1,9 +1,15 @@
 package com.auth.app.config;
 
-import com.auth.app.jwt.service.CustomUserDetails;
+import com.auth.app.cluster.ClusterBus;
+import com.auth.app.cluster.ClusterStoreFactory;
+import com.auth.app.exceptions.InvalidUsernameException;
 import com.auth.app.jwt.service.JwtService;
+import com.auth.app.jwt.service.TokenClaims;
 import com.auth.app.model.user.model.User;
 import com.auth.app.model.user.repository.UserRepository;
+import com.auth.app.service.PresenceService;
+import com.auth.app.service.WireFormat;
+import com.corundumstudio.socketio.SocketIOClient;
 import com.corundumstudio.socketio.SocketIOServer;
 import io.jsonwebtoken.ExpiredJwtException;
 import jakarta.annotation.PreDestroy;
@@ -12,15 +18,23 @@ import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.web.bind.annotation.CrossOrigin;
 
 import java.util.Date;
+import java.util.List;
 
 @CrossOrigin
 @Configuration
 @Log4j2
 @RequiredArgsConstructor
 public class SocketIOConfig {
+    /**
+     * Client attribute holding the {@link TokenClaims} the session was authenticated with.
+     */
+    public static final String SESSION_CLAIMS = "claims";
+
     @Value("${socket.host}")
     private String HOST;
     @Value("${socket.port}")
@@ -28,76 +42,120 @@ public class SocketIOConfig {
     private SocketIOServer server;
     private final JwtService jwtService;
     private final UserRepository userRepository;
+    private final PresenceService presenceService;
+    private final ClusterBus clusterBus;
     @Bean
+    // Embedded room messages are migrated before any new message can be numbered
+    @DependsOn("mongoConfig")
     public SocketIOServer socketIOServer(){
         com.corundumstudio.socketio.Configuration config = new com.corundumstudio.socketio.Configuration();
         config.setHostname(HOST);
         config.setPort(PORT);
+        if (clusterBus.isClustered()) {
+            // Room joins and broadcasts are relayed to the other nodes so each one delivers to its own clients
+            config.setStoreFactory(new ClusterStoreFactory(clusterBus));
+        }
         server = new SocketIOServer(config);
 
         server.addConnectListener(socketIOClient -> {
-            final String header = socketIOClient.getHandshakeData().getUrlParams().get("token").get(0);
+            List<String> tokenParam = socketIOClient.getHandshakeData().getUrlParams().get("token");
+            final String header = tokenParam != null ? tokenParam.get(0) : null;
             if (header == null || !header.startsWith("Bearer ")) {
                 socketIOClient.disconnect();
                 return;
             }
 
-            String token = header.substring(7);
-            String username;
-
-            try {
-                if (jwtService.validateToken(token)) {
-                    username = jwtService.getUsername(token);
-                    System.out.println(username + " connected to " + socketIOClient.getSessionId());
-                } else {
-                    try {
-                        username = jwtService.getUsername(token);
-                    } catch (ExpiredJwtException e) {
-                        socketIOClient.disconnect();
-                        return;
-                    }
-
-                    if (username != null) {
-                        User user = userRepository.findByUsername(username).orElseThrow();
-                        String refreshToken = user.getRefreshToken();
-
-                        if (refreshToken != null) {
-                            if (!jwtService.validateRefreshToken(refreshToken)) {
-                                socketIOClient.disconnect();
-                                return;
-                            }
-
-                            Date refreshTokenExpiry = jwtService.extractExpirationDate(refreshToken);
-
-                            if (refreshTokenExpiry.before(new Date())) {
-                                socketIOClient.disconnect();
-                            } else {
-                                // The refresh token is still valid, renew the JWT
-                                String newToken = jwtService.generateToken(username);
-                                socketIOClient.getHandshakeData().getHttpHeaders().set("Authorization", "Bearer " + newToken);
-                                log.debug("User reconnected with new JWT to " + socketIOClient.getSessionId());
-                            }
-                        } else {
-                            socketIOClient.disconnect();
-                        }
-                    } else {
-                        socketIOClient.disconnect();
-                    }
-                }
-            } catch (Exception e) {
+            TokenClaims claims = authenticate(header.substring(7));
+            if (claims == null) {
                 socketIOClient.disconnect();
-                log.error("Error during authentication", e);
+                return;
             }
+            socketIOClient.set(SESSION_CLAIMS, claims);
+            List<String> formatParam = socketIOClient.getHandshakeData().getUrlParams().get("format");
+            socketIOClient.set(WireFormat.SESSION_ATTRIBUTE, WireFormat.fromHandshake(formatParam != null ? formatParam.get(0) : null));
+            presenceService.connected(socketIOClient.getSessionId(), claims);
+            log.debug(claims.username() + " connected to " + socketIOClient.getSessionId());
         });
 
-        server.addDisconnectListener(socketIOClient -> log.debug("User disconnected with socket " + socketIOClient.getSessionId()));
+        server.addDisconnectListener(socketIOClient -> {
+            presenceService.disconnected(socketIOClient.getSessionId());
+            log.debug("User disconnected with socket " + socketIOClient.getSessionId());
+        });
 
         server.start();
 
         return server;
     }
+
+    /**
+     * Sessions keep the identity they connected with, so token expiry is enforced here instead of on every event.
+     * An expired session is renewed while the user's refresh token is valid and disconnected otherwise.
+     */
+    @Scheduled(fixedDelayString = "${socket.session-check-ms:30000}")
+    public void expireSessions() {
+        if (server == null) {
+            return;
+        }
+        Date now = new Date();
+        for (SocketIOClient client : server.getAllClients()) {
+            TokenClaims claims = client.get(SESSION_CLAIMS);
+            if (claims == null || claims.expiration() == null || claims.expiration().after(now)) {
+                continue;
+            }
+            TokenClaims renewed = renewSafely(claims.username());
+            if (renewed != null) {
+                client.set(SESSION_CLAIMS, renewed);
+                log.debug("Renewed JWT of socket " + client.getSessionId());
+            } else {
+                client.disconnect();
+            }
+        }
+    }
+
     @PreDestroy
     public void stopSocketIOServer(){
         this.server.stop();
     }
+
+    private TokenClaims authenticate(String token) {
+        try {
+            if (jwtService.validateToken(token)) {
+                return jwtService.parse(token);
+            }
+            String username;
+            try {
+                username = jwtService.getUsername(token);
+            } catch (ExpiredJwtException e) {
+                return null;
+            }
+            return username != null ? renew(username) : null;
+        } catch (Exception e) {
+            log.error("Error during authentication", e);
+            return null;
+        }
+    }
+
+    private TokenClaims renewSafely(String username) {
+        try {
+            return renew(username);
+        } catch (Exception e) {
+            log.error("Error while renewing socket session", e);
+            return null;
+        }
+    }
+
+    private TokenClaims renew(String username) throws InvalidUsernameException {
+        User user = userRepository.findByUsername(username).orElseThrow();
+        String refreshToken = user.getRefreshToken();
+
+        if (refreshToken == null || !jwtService.validateRefreshToken(refreshToken)) {
+            return null;
+        }
+        Date refreshTokenExpiry = jwtService.extractExpirationDate(refreshToken);
+        if (refreshTokenExpiry.before(new Date())) {
+            return null;
+        }
+        // The refresh token is still valid, renew the JWT
+        return jwtService.parse(jwtService.generateToken(username));
+    }
 }
@@ -1,20 +1,26 @@
 package com.auth.app.controller;
 
 import com.auth.app.DTO.*;
+import com.auth.app.config.SocketIOConfig;
 import com.auth.app.exceptions.ChatRoomException;
 import com.auth.app.exceptions.InvalidInvitationException;
 import com.auth.app.exceptions.InvalidUserException;
-import com.auth.app.model.ChatRoom;
+import com.auth.app.jwt.service.TokenClaims;
 import com.auth.app.model.Message;
 import com.auth.app.service.ChatService;
+import com.auth.app.service.PresenceService;
+import com.auth.app.service.WireFormat;
 import com.auth.app.model.user.service.UserService;
 import com.corundumstudio.socketio.AckRequest;
 import com.corundumstudio.socketio.SocketIOClient;
 import com.corundumstudio.socketio.SocketIOServer;
+import io.jsonwebtoken.JwtException;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 @Component
@@ -22,11 +28,13 @@ public class SocketIOController {
     private final SocketIOServer server;
     private final ChatService chatService;
     private final UserService userService;
+    private final PresenceService presenceService;
 
-    public SocketIOController(SocketIOServer server, ChatService chatService, UserService userService) {
+    public SocketIOController(SocketIOServer server, ChatService chatService, UserService userService, PresenceService presenceService) {
         this.server = server;
         this.chatService = chatService;
         this.userService = userService;
+        this.presenceService = presenceService;
 
         this.server.addEventListener("sendMessage", MessageRequest.class, this::handleSendMessage);
         this.server.addEventListener("createChatRoom", RoomNameRequest.class, this::handleCreateChatRoom);
@@ -40,122 +48,221 @@ public class SocketIOController {
         this.server.addEventListener("demote", PromotionRequest.class, this::handleDemoteGroupAdmin);
         this.server.addEventListener("getRole", PromotionRequest.class, this::handleGetGroupRole);
         this.server.addEventListener("leaveChatRoom", RoomRequest.class, this::handleLeaveChatRoom);
+        this.server.addEventListener("getMessages", MessagePageRequest.class, this::handleGetMessages);
+        this.server.addEventListener("resume", ResumeRequest.class, this::handleResume);
+        this.server.addEventListener("markRead", ReadRequest.class, this::handleMarkRead);
+        this.server.addEventListener("typing", TypingRequest.class, this::handleTyping);
+        this.server.addEventListener("getPresence", RoomRequest.class, this::handleGetPresence);
+        this.server.addEventListener("searchMessages", SearchRequest.class, this::handleSearchMessages);
     }
 
     private void handleCreateChatRoom(SocketIOClient client, RoomNameRequest request, AckRequest ackRequest) {
-        String token = getToken(client);
-        chatService.createChatRoom(token, request.roomName());
-        List<ChatRoom> chatRoomList = userService.getAllChatRooms(token);
+        TokenClaims claims = getClaims(client);
+        chatService.createChatRoom(claims, request.roomName());
+        List<ChatRoomSummary> chatRoomList = userService.getAllChatRooms(claims);
 
         if (ackRequest.isAckRequested()) {
-            ackRequest.sendAckData(chatRoomList);
+            ackRequest.sendAckData(encode(client, chatRoomList));
         }
     }
 
     private void handleSendMessage(SocketIOClient client, MessageRequest request, AckRequest ackRequest) {
-        String token = getToken(client);
-        Message message = chatService.sendMessage(request.roomId(), request.text(), token);
-
-        this.server.getRoomOperations(request.roomId()).sendEvent("newMessage", message);
+        TokenClaims claims = getClaims(client);
+        chatService.sendMessageAsync(request.roomId(), request.text(), claims).whenComplete((accepted, failure) -> {
+            if (failure != null) {
+                // Nothing was broadcast or numbered, the client can simply send again
+                Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+                client.sendEvent("error", encode(client, cause.getMessage()));
+                return;
+            }
+            presenceService.typing(client.getSessionId(), request.roomId(), false);
 
-        if (ackRequest.isAckRequested()) {
-            ackRequest.sendAckData(message);
-        }
+            accepted.persisted().whenComplete((persisted, e) -> {
+                if (e != null) {
+                    client.sendEvent("error", encode(client, "Message could not be saved"));
+                } else if (ackRequest.isAckRequested()) {
+                    ackRequest.sendAckData(encode(client, persisted));
+                }
+            });
+        });
     }
 
     private void handleAcceptInvite(SocketIOClient client, InvitationRequest request, AckRequest ackRequest) {
-        String token = getToken(client);
+        TokenClaims claims = getClaims(client);
         try {
-            chatService.acceptInvite(token, request.invitationLink());
-            List<ChatRoom> chatRoomList = userService.getAllChatRooms(token);
+            chatService.acceptInvite(claims, request.invitationLink());
+            List<ChatRoomSummary> chatRoomList = userService.getAllChatRooms(claims);
             if (ackRequest.isAckRequested()){
-                ackRequest.sendAckData(chatRoomList);
+                ackRequest.sendAckData(encode(client, chatRoomList));
             }
         } catch (InvalidInvitationException | ChatRoomException e) {
-            client.sendEvent("error", e.getMessage());
+            client.sendEvent("error", encode(client, e.getMessage()));
         }
     }
 
     private void handleCreateInvite(SocketIOClient client, RoomRequest request, AckRequest ackRequest){
-        String token = getToken(client);
-        String invite = chatService.createInvite(token, request.roomId());
+        TokenClaims claims = getClaims(client);
+        String invite = chatService.createInvite(claims, request.roomId());
         if (ackRequest.isAckRequested()) {
-            ackRequest.sendAckData(invite);
+            ackRequest.sendAckData(encode(client, invite));
         }
     }
     private void handleGetParticipants(SocketIOClient client, RoomRequest request, AckRequest ackRequest) throws ChatRoomException, InvalidUserException {
-        String token = getToken(client);
-        Map<String, String> participants = chatService.getParticipants(token, request.roomId());
+        TokenClaims claims = getClaims(client);
+        Map<String, String> participants = chatService.getParticipants(claims, request.roomId());
 
         if (ackRequest.isAckRequested()) {
-            ackRequest.sendAckData(participants);
+            ackRequest.sendAckData(encode(client, participants));
         }
     }
     private void handleJoinRoom(SocketIOClient client, RoomRequest request, AckRequest ackRequest) {
-        client.joinRoom(request.roomId());
+        // Joining subscribes to the room's broadcasts and shows the user in its presence, so only members may
+        if (!isParticipant(client, request.roomId())) {
+            return;
+        }
+        client.joinRoom(WireFormat.of(client).room(request.roomId()));
+        presenceService.joined(client.getSessionId(), request.roomId());
 
         if (ackRequest.isAckRequested()) {
-            ackRequest.sendAckData("Joined room " + request.roomId());
+            ackRequest.sendAckData(encode(client, "Joined room " + request.roomId()));
         }
     }
 
     private void handleLeaveRoom(SocketIOClient client, RoomRequest request, AckRequest ackRequest) {
-        client.leaveRoom(request.roomId());
+        client.leaveRoom(WireFormat.of(client).room(request.roomId()));
+        presenceService.left(client.getSessionId(), request.roomId());
 
         if (ackRequest.isAckRequested()) {
-            ackRequest.sendAckData("Left room " + request.roomId());
+            ackRequest.sendAckData(encode(client, "Left room " + request.roomId()));
         }
     }
     private void handleKickUserFromGroup(SocketIOClient client, PromotionRequest request, AckRequest ackRequest) throws ChatRoomException, InvalidUserException {
-        String token = getToken(client);
-        Map<String, Object> result = chatService.kickUserFromGroup(token, request.roomId(), request.email());
+        TokenClaims claims = getClaims(client);
+        Map<String, Object> result = chatService.kickUserFromGroup(claims, request.roomId(), request.email());
 
-        Message message = (Message) result.get("message");
+        // Already broadcast to the room by the chat service
         result.remove("message");
         Map<String, String> remainingParticipants = result.entrySet().stream()
                 .collect(Collectors.toMap(Map.Entry::getKey, e -> (String) e.getValue()));
 
         if (ackRequest.isAckRequested()){
-            ackRequest.sendAckData(remainingParticipants);
+            ackRequest.sendAckData(encode(client, remainingParticipants));
         }
-
-        this.server.getRoomOperations(request.roomId()).sendEvent("newMessage", message);
     }
 
     private void handleDemoteGroupAdmin(SocketIOClient client, PromotionRequest request, AckRequest ack) throws ChatRoomException, InvalidUserException {
-        String token = getToken(client);
-        Map<String, String> participants = chatService.demoteGroupAdmin(token, request.roomId(), request.email());
+        TokenClaims claims = getClaims(client);
+        Map<String, String> participants = chatService.demoteGroupAdmin(claims, request.roomId(), request.email());
 
         if (ack.isAckRequested()){
-            ack.sendAckData(participants);
+            ack.sendAckData(encode(client, participants));
         }
     }
     private void handlePromoteToGroupAdmin(SocketIOClient client, PromotionRequest request, AckRequest ack) throws ChatRoomException, InvalidUserException {
-        String token = getToken(client);
-        Map<String, String> participants = chatService.promoteToGroupAdmin(token, request.roomId(), request.email());
+        TokenClaims claims = getClaims(client);
+        Map<String, String> participants = chatService.promoteToGroupAdmin(claims, request.roomId(), request.email());
 
         if (ack.isAckRequested()){
-            ack.sendAckData(participants);
+            ack.sendAckData(encode(client, participants));
         }
     }
     private void handleGetGroupRole(SocketIOClient client, PromotionRequest request, AckRequest ack) throws ChatRoomException {
-        String token = getToken(client);
-        Map<String, String> emailAndRole = chatService.getGroupRole(token, request.roomId());
+        TokenClaims claims = getClaims(client);
+        Map<String, String> emailAndRole = chatService.getGroupRole(claims, request.roomId());
 
         if (ack.isAckRequested()){
-            ack.sendAckData(emailAndRole);
+            ack.sendAckData(encode(client, emailAndRole));
         }
     }
     private void handleLeaveChatRoom(SocketIOClient client, RoomRequest request, AckRequest ack) throws ChatRoomException, InvalidUserException {
-        String token = getToken(client);
-        List<ChatRoom> rooms = chatService.leaveChatRoom(token, request.roomId());
+        TokenClaims claims = getClaims(client);
+        List<ChatRoomSummary> rooms = chatService.leaveChatRoom(claims, request.roomId());
+
+        if (ack.isAckRequested()){
+            ack.sendAckData(encode(client, rooms));
+        }
+    }
+    private void handleGetMessages(SocketIOClient client, MessagePageRequest request, AckRequest ack) throws ChatRoomException {
+        TokenClaims claims = getClaims(client);
+        List<Message> messages = userService.getMessages(claims, request.roomId(), request.before(), request.after(), request.limit());
 
         if (ack.isAckRequested()){
-            ack.sendAckData(rooms);
+            ack.sendAckData(encode(client, messages));
         }
     }
-    private String getToken(SocketIOClient client){
-        String header = client.getHandshakeData().getUrlParams().get("token").get(0);
-        return header.substring(7);
+    private void handleResume(SocketIOClient client, ResumeRequest request, AckRequest ack) {
+        TokenClaims claims = getClaims(client);
+        Map<String, List<Message>> missed = new HashMap<>();
+
+        for (Map.Entry<String, Long> room : request.lastSeen().entrySet()) {
+            // Join before reading so anything sent from here on arrives live instead of falling between the two
+            client.joinRoom(WireFormat.of(client).room(room.getKey()));
+            long lastSeenSeq = room.getValue() != null ? room.getValue() : 0L;
+            try {
+                missed.put(room.getKey(), userService.getMessagesSince(claims, room.getKey(), lastSeenSeq));
+                presenceService.joined(client.getSessionId(), room.getKey());
+            } catch (ChatRoomException e) {
+                client.leaveRoom(WireFormat.of(client).room(room.getKey()));
+                client.sendEvent("error", encode(client, e.getMessage()));
+            }
+        }
+
+        if (ack.isAckRequested()){
+            ack.sendAckData(encode(client, missed));
+        }
+    }
+    private void handleMarkRead(SocketIOClient client, ReadRequest request, AckRequest ack) throws ChatRoomException {
+        TokenClaims claims = getClaims(client);
+        chatService.markRead(claims, request.roomId(), request.seq());
+
+        if (ack.isAckRequested()){
+            ack.sendAckData(encode(client, request.seq()));
+        }
+    }
+    private void handleSearchMessages(SocketIOClient client, SearchRequest request, AckRequest ack) throws ChatRoomException {
+        TokenClaims claims = getClaims(client);
+        List<SearchHit> hits = userService.searchMessages(claims, request.query(), request.roomId(), request.page(), request.limit());
+
+        if (ack.isAckRequested()){
+            ack.sendAckData(encode(client, hits));
+        }
+    }
+    private void handleTyping(SocketIOClient client, TypingRequest request, AckRequest ack) {
+        if (!isParticipant(client, request.roomId())) {
+            return;
+        }
+        presenceService.typing(client.getSessionId(), request.roomId(), request.typing());
+    }
+    private void handleGetPresence(SocketIOClient client, RoomRequest request, AckRequest ack) {
+        if (!isParticipant(client, request.roomId())) {
+            return;
+        }
+        if (!client.getAllRooms().contains(WireFormat.of(client).room(request.roomId()))) {
+            client.sendEvent("error", encode(client, "Join the room first"));
+            return;
+        }
+        if (ack.isAckRequested()){
+            ack.sendAckData(encode(client, presenceService.snapshot(request.roomId())));
+        }
+    }
+    private boolean isParticipant(SocketIOClient client, String roomId) {
+        // Membership may have changed since the room was joined, the check reads the membership cache
+        try {
+            chatService.checkParticipant(getClaims(client), roomId);
+            return true;
+        } catch (ChatRoomException e) {
+            client.sendEvent("error", encode(client, e.getMessage()));
+            return false;
+        }
+    }
+    private static Object encode(SocketIOClient client, Object data) {
+        return WireFormat.of(client).encode(data);
+    }
+    private TokenClaims getClaims(SocketIOClient client){
+        TokenClaims claims = client.get(SocketIOConfig.SESSION_CLAIMS);
+        if (claims == null) {
+            throw new JwtException("Socket session is not authenticated");
+        }
+        return claims;
     }
 }
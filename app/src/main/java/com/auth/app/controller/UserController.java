@@ -2,16 +2,29 @@ package com.auth.app.controller;
 
 import com.auth.app.DTO.*;
 import com.auth.app.exceptions.*;
-import com.auth.app.model.ChatRoom;
+import com.auth.app.jwt.service.JwtService;
+import com.auth.app.jwt.service.TokenClaims;
 import com.auth.app.model.Message;
 import com.auth.app.service.ChatService;
 import com.auth.app.model.user.service.UserService;
+import com.auth.app.service.RoomExporter;
+import com.auth.app.service.VoiceMessageService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/user")
@@ -20,65 +33,115 @@ public class UserController {
 
     private final UserService userService;
     private final ChatService chatService;
+    private final JwtService jwtService;
+    private final VoiceMessageService voiceMessageService;
+    private final RoomExporter roomExporter;
 
     @GetMapping("/allChats")
     @ResponseStatus(HttpStatus.OK)
-    public List<ChatRoom> getAllChats(@RequestHeader("Authorization") String header) {
-        return userService.getAllChatRooms(getToken(header));
+    public List<ChatRoomSummary> getAllChats(@RequestHeader("Authorization") String header) {
+        return userService.getAllChatRooms(getClaims(header));
     }
     @PostMapping("/allMessages")
     @ResponseStatus(HttpStatus.OK)
     public List<Message> getAllMessages(@RequestHeader("Authorization") String header, @RequestBody RoomRequest request) throws ChatRoomException {
-        return userService.getAllMessages(getToken(header), request.roomId());
+        return userService.getAllMessages(getClaims(header), request.roomId());
+    }
+    @PostMapping("/messages")
+    @ResponseStatus(HttpStatus.OK)
+    public List<Message> getMessages(@RequestHeader("Authorization") String header, @RequestBody MessagePageRequest request) throws ChatRoomException {
+        return userService.getMessages(getClaims(header), request.roomId(), request.before(), request.after(), request.limit());
+    }
+    // Searches messages within the retention window only, archived messages are not indexed
+    @PostMapping("/search")
+    @ResponseStatus(HttpStatus.OK)
+    public List<SearchHit> searchMessages(@RequestHeader("Authorization") String header, @RequestBody SearchRequest request) throws ChatRoomException {
+        return userService.searchMessages(getClaims(header), request.query(), request.roomId(), request.page(), request.limit());
     }
     @PostMapping("/createRoom")
     @ResponseStatus(HttpStatus.CREATED)
     public void createChatRoom(@RequestHeader("Authorization") String header, @RequestBody RoomNameRequest request) {
-        chatService.createChatRoom(getToken(header), request.roomName());
+        chatService.createChatRoom(getClaims(header), request.roomName());
     }
     @PostMapping("/invite")
     @ResponseStatus(HttpStatus.CREATED)
     public String createInvite(@RequestHeader("Authorization") String header, @RequestBody RoomRequest request){
-        return chatService.createInvite(getToken(header), request.roomId());
+        return chatService.createInvite(getClaims(header), request.roomId());
     }
     @PostMapping("/acceptInvite")
     @ResponseStatus(HttpStatus.OK)
     public void acceptInvite(@RequestHeader("Authorization") String header, @RequestBody InvitationRequest request) throws InvalidInvitationException, ChatRoomException {
-        chatService.acceptInvite(getToken(header), request.invitationLink());
+        chatService.acceptInvite(getClaims(header), request.invitationLink());
     }
     @PutMapping("/change-password")
     @ResponseStatus(HttpStatus.OK)
     public void changePassword(@RequestHeader("Authorization") String header, @RequestBody ChangePasswordRequest request) throws InvalidPasswordException, InvalidUserException {
-        userService.changePassword(getToken(header), request.oldPassword(), request.newPassword());
+        userService.changePassword(getClaims(header), request.oldPassword(), request.newPassword());
     }
     @PutMapping("/change-email")
     @ResponseStatus(HttpStatus.OK)
     public void changeEmail(@RequestHeader("Authorization") String header, @RequestBody EmailRequest request) throws InvalidEmailException {
-        userService.changeEmail(getToken(header), request.email());
+        userService.changeEmail(getClaims(header), request.email());
     }
     @PostMapping("/leave-chat")
     @ResponseStatus(HttpStatus.OK)
-    public List<ChatRoom> leaveChatRoom(@RequestHeader("Authorization") String header, @RequestParam String roomId) throws ChatRoomException, InvalidUserException {
-        return chatService.leaveChatRoom(getToken(header), roomId);
+    public List<ChatRoomSummary> leaveChatRoom(@RequestHeader("Authorization") String header, @RequestParam String roomId) throws ChatRoomException, InvalidUserException {
+        return chatService.leaveChatRoom(getClaims(header), roomId);
     }
     @PutMapping("/grant-group-admin")
     @ResponseStatus(HttpStatus.OK)
     public Map<String, String> grantGroupAdminRole(@RequestHeader("Authorization") String header, @RequestBody PromotionRequest request) throws ChatRoomException, InvalidUserException {
-        return chatService.promoteToGroupAdmin(getToken(header), request.roomId(), request.email());
+        return chatService.promoteToGroupAdmin(getClaims(header), request.roomId(), request.email());
     }
     @PutMapping("/revoke-group-admin")
     @ResponseStatus(HttpStatus.OK)
     public Map<String, String> revokeGroupAdminRole(@RequestHeader("Authorization") String header, @RequestBody PromotionRequest request) throws InvalidUserException, ChatRoomException {
-        return chatService.demoteGroupAdmin(getToken(header), request.roomId(), request.email());
+        return chatService.demoteGroupAdmin(getClaims(header), request.roomId(), request.email());
     }
     @PostMapping("/kick-user")
     @ResponseStatus(HttpStatus.OK)
     public void kickUser(@RequestHeader("Authorization") String header, @RequestBody PromotionRequest request) throws InvalidUserException, ChatRoomException {
-        chatService.kickUserFromGroup(getToken(header), request.roomId(), request.email());
+        chatService.kickUserFromGroup(getClaims(header), request.roomId(), request.email());
+    }
+
+    @PostMapping("/voice/uploads")
+    @ResponseStatus(HttpStatus.CREATED)
+    public VoiceUploadResponse startVoiceUpload(@RequestHeader("Authorization") String header, @RequestBody VoiceMessageRequest request) throws ChatRoomException, InvalidUploadException {
+        return voiceMessageService.startUpload(getClaims(header), request.roomId(), request.contentType(), request.length());
+    }
+    @PutMapping(value = "/voice/uploads/{uploadId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<VoiceUploadResponse> uploadVoiceChunk(@RequestHeader("Authorization") String header, @PathVariable String uploadId, @RequestParam long offset, InputStream chunk) throws InvalidUploadException {
+        VoiceUploadResponse response = voiceMessageService.appendChunk(getClaims(header), uploadId, offset, chunk);
+        // A chunk past the end of what was received is refused, the client resumes from the returned offset
+        HttpStatus status = offset > response.received() ? HttpStatus.CONFLICT : HttpStatus.OK;
+        return ResponseEntity.status(status).body(response);
+    }
+    @PostMapping("/voice/uploads/{uploadId}/complete")
+    @ResponseStatus(HttpStatus.CREATED)
+    public CompletableFuture<Message> completeVoiceUpload(@RequestHeader("Authorization") String header, @PathVariable String uploadId) throws InvalidUploadException {
+        return voiceMessageService.completeUpload(getClaims(header), uploadId).persisted();
+    }
+    @GetMapping("/rooms/{roomId}/messages/{messageId}/voice")
+    public ResponseEntity<Resource> getVoiceMessage(@RequestHeader("Authorization") String header, @PathVariable String roomId, @PathVariable String messageId) throws ChatRoomException {
+        VoiceMessageService.VoiceClip clip = voiceMessageService.getVoice(getClaims(header), roomId, messageId);
+        // Returned as a resource so Range requests are answered with just the requested part
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(clip.attachment().contentType()))
+                .cacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate())
+                .body(clip.content());
     }
 
+    @GetMapping("/rooms/{roomId}/export")
+    public ResponseEntity<StreamingResponseBody> exportRoom(@RequestHeader("Authorization") String header, @PathVariable String roomId, @RequestParam(defaultValue = "false") boolean gzip) throws ChatRoomException {
+        roomExporter.checkParticipant(getClaims(header), roomId);
+        String filename = roomId + (gzip ? ".ndjson.gz" : ".ndjson");
+        return ResponseEntity.ok()
+                .contentType(gzip ? MediaType.parseMediaType("application/gzip") : MediaType.parseMediaType("application/x-ndjson"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString())
+                .body(out -> roomExporter.export(roomId, out, gzip));
+    }
 
-    private String getToken(String header){
-        return header.substring(7);
+    private TokenClaims getClaims(String header){
+        return jwtService.parse(header.substring(7));
     }
 }
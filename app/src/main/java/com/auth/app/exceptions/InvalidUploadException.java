@@ -0,0 +1,11 @@
+package com.auth.app.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidUploadException extends Exception {
+    public InvalidUploadException(String message){
+        super(message);
+    }
+}
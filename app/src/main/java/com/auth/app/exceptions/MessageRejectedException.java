@@ -0,0 +1,12 @@
+package com.auth.app.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// Unchecked because it is raised on the send path shared by socket and REST handlers
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class MessageRejectedException extends RuntimeException {
+    public MessageRejectedException(String message){
+        super(message);
+    }
+}
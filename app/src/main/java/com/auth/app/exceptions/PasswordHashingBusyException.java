@@ -0,0 +1,12 @@
+package com.auth.app.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// Unchecked because it is thrown from inside PasswordEncoder, which cannot declare checked exceptions
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class PasswordHashingBusyException extends RuntimeException {
+    public PasswordHashingBusyException(String message){
+        super(message);
+    }
+}
@@ -7,13 +7,14 @@ import com.auth.app.model.user.model.User;
 import com.auth.app.model.user.repository.UserRepository;
 import lombok.AllArgsConstructor;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
 @Service
 @AllArgsConstructor
-public class CustomUserDetails implements UserDetailsService {
+public class CustomUserDetails implements UserDetailsService, UserDetailsPasswordService {
 
     private final UserRepository userRepository;
 
@@ -24,4 +25,14 @@ public class CustomUserDetails implements UserDetailsService {
 
         return new SecureUser(user);
     }
+
+    // Called after a successful login whose stored hash has a lower cost than the configured one
+    @Override
+    public UserDetails updatePassword(UserDetails userDetails, String newPassword) {
+        User user = userRepository.findByUsername(userDetails.getUsername())
+                .orElseThrow(() -> new UsernameNotFoundException("No user found with username: " + userDetails.getUsername()));
+        userRepository.updatePassword(user.getUsername(), newPassword);
+        user.setPassword(newPassword);
+        return new SecureUser(user);
+    }
 }
@@ -19,6 +19,8 @@ import org.springframework.stereotype.Service;
 import java.security.Key;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class JwtService {
@@ -26,14 +28,44 @@ public class JwtService {
     private final UserRepository userRepository;
     private final Long expiration;
     private final Key key;
+    private final JwtParser parser;
+    private final int claimsCacheSize;
+    // Claims of tokens whose signature was already verified, so repeated use of a token skips the HMAC check
+    private final Map<String, TokenClaims> verifiedClaims = new ConcurrentHashMap<>();
 
     public JwtService(@Value("${secret.key}") String secret,
-                      @Value("${jwt.expiration}") Long expiration, UserRepository userRepository) {
+                      @Value("${jwt.expiration}") Long expiration,
+                      @Value("${jwt.claims-cache-size:10000}") int claimsCacheSize, UserRepository userRepository) {
         this.expiration = expiration;
         this.key = Keys.hmacShaKeyFor(Decoders.BASE64.decode(secret));
+        this.parser = Jwts.parserBuilder().setSigningKey(key).build();
+        this.claimsCacheSize = claimsCacheSize;
         this.userRepository = userRepository;
     }
 
+    /**
+     * Verifies a token and returns its claims. Throws the same {@link JwtException}s as parsing it directly,
+     * including {@link ExpiredJwtException} once the token has expired.
+     */
+    public TokenClaims parse(String token) {
+        TokenClaims cached = verifiedClaims.get(token);
+        if (cached != null) {
+            if (cached.expiration() == null || cached.expiration().after(new Date())) {
+                return cached;
+            }
+            verifiedClaims.remove(token);
+        }
+
+        Claims claims = parser.parseClaimsJws(token).getBody();
+        TokenClaims verified = new TokenClaims(token, claims.get("id", String.class), claims.get("email", String.class),
+                claims.getSubject(), claims.getExpiration());
+        if (verifiedClaims.size() >= claimsCacheSize) {
+            evictClaims();
+        }
+        verifiedClaims.put(token, verified);
+        return verified;
+    }
+
     public String generateToken(Authentication authentication) {
         String username = authentication.getName();
         List<String> roles = authentication.getAuthorities().stream()
@@ -66,6 +98,7 @@ public class JwtService {
 
         return Jwts.builder()
                 .setSubject(username)
+                .claim("id", user.getId())
                 .claim("roles", roles)
                 .claim("email", email)
                 .setIssuedAt(currentDate)
@@ -87,12 +120,7 @@ public class JwtService {
 
     public String getUsername(String token) {
         try {
-            Claims claims = Jwts.parserBuilder()
-                    .setSigningKey(key)
-                    .build()
-                    .parseClaimsJws(token)
-                    .getBody();
-            return claims.getSubject();
+            return parse(token).username();
         } catch (ExpiredJwtException e) {
             // Even if the JWT has expired, we still want to extract the username
             return e.getClaims().getSubject();
@@ -100,27 +128,14 @@ public class JwtService {
     }
 
     public String getEmail(String token) {
-        Claims claims = Jwts.parserBuilder()
-                .setSigningKey(key)
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
-        return claims.get("email", String.class);
+        return parse(token).email();
     }
     public String getId(String token) {
-        Claims claims = Jwts.parserBuilder()
-                .setSigningKey(key)
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
-        return claims.get("id", String.class);
+        return parse(token).id();
     }
     public boolean validateToken(String token) {
         try{
-            Jwts.parserBuilder()
-                    .setSigningKey(key)
-                    .build()
-                    .parse(token);
+            parse(token);
             return true;
         } catch (MalformedJwtException e) {
             logger.error("Invalid JWT token: {}", e.getMessage());
@@ -136,21 +151,22 @@ public class JwtService {
 
     public boolean validateRefreshToken(String token) {
         try {
-            Jwts.parserBuilder()
-                    .setSigningKey(key)
-                    .build()
-                    .parseClaimsJws(token);
+            parser.parseClaimsJws(token);
             return true;
         } catch (Exception e) {
             return false;
         }
     }
     public Date extractExpirationDate(String token) {
-        Claims claims = Jwts.parserBuilder()
-                .setSigningKey(key)
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        Claims claims = parser.parseClaimsJws(token).getBody();
         return claims.getExpiration();
     }
+
+    private void evictClaims() {
+        Date now = new Date();
+        verifiedClaims.values().removeIf(claims -> claims.expiration() != null && !claims.expiration().after(now));
+        if (verifiedClaims.size() >= claimsCacheSize) {
+            verifiedClaims.clear();
+        }
+    }
 }
@@ -0,0 +1,10 @@
+package com.auth.app.jwt.service;
+
+import java.util.Date;
+
+/**
+ * The verified claims of an access token. Produced once per request or socket event by {@link JwtService#parse}
+ * and handed to the service layer so no claim is read by parsing the token again.
+ */
+public record TokenClaims(String token, String id, String email, String username, Date expiration) {
+}
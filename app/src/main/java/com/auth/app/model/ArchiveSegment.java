@@ -0,0 +1,43 @@
+package com.auth.app.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.bson.types.Binary;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * An immutable, compressed block of consecutive messages of one room that have left hot storage. The id and seq
+ * bounds act as a sparse index, so a read finds the one segment it needs without decompressing the others.
+ */
+@Document(collection = "archiveSegments")
+@CompoundIndexes({
+        @CompoundIndex(name = "room_first", def = "{'roomId': 1, 'firstMessageId': 1}"),
+        @CompoundIndex(name = "room_last", def = "{'roomId': 1, 'lastMessageId': 1}"),
+        @CompoundIndex(name = "room_last_seq", def = "{'roomId': 1, 'lastSeq': 1}")
+})
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ArchiveSegment {
+    // roomId:firstMessageId, so archiving the same messages twice rewrites the same segment
+    @Id
+    private String id;
+    private String roomId;
+    private String firstMessageId;
+    private String lastMessageId;
+    private long firstSeq;
+    private long lastSeq;
+    private int count;
+    private int rawBytes;
+    private Date createdAt;
+    // Deflate compressed, length-prefixed BSON documents of the messages in order
+    private Binary data;
+}
@@ -0,0 +1,9 @@
+package com.auth.app.model;
+
+import java.io.Serializable;
+
+/**
+ * Reference from a message to content kept in the blob store.
+ */
+public record Attachment(String id, String contentType, long length) implements Serializable {
+}
@@ -0,0 +1,28 @@
+package com.auth.app.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Number of attachments pointing at a blob of the content-addressed store, keyed by the blob's content hash.
+ */
+@Document(collection = "blobReferences")
+@CompoundIndex(name = "unreferenced", def = "{'refs': 1, 'updatedAt': 1}")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BlobReference {
+    @Id
+    private String id;
+    private long refs;
+    private long length;
+    private Date updatedAt;
+}
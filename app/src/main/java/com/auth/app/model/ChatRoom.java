@@ -5,11 +5,10 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 import java.util.Set;
 
 @Document(collection = "ChatRooms")
@@ -21,9 +20,14 @@ public class ChatRoom {
     @Id
     private String id;
     private String roomName;
+    @Indexed
     private Set<String> participantIds;
     private Set<String> groupAdmins;
-    private List<Message> messages;
     private Date createdAt;
     private String createdBy;
+    // Head of the room's history, kept up to date by MessageWriter so room lists never read the messages
+    private long lastSeq;
+    private String lastMessagePreview;
+    private String lastMessageSender;
+    private Date lastActivityAt;
 }
@@ -4,21 +4,34 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
-import org.bson.types.Binary;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.io.Serializable;
 import java.util.Date;
 @Document(collection = "messages")
+@CompoundIndexes({
+        @CompoundIndex(name = "room_history", def = "{'roomId': 1, '_id': 1}"),
+        @CompoundIndex(name = "room_seq", def = "{'roomId': 1, 'seq': 1}"),
+        // Prefixed by roomId so a search only reads the index entries of one room
+        @CompoundIndex(name = Message.TEXT_INDEX, def = "{'roomId': 1, 'text': 'text'}")
+})
 @Data
 @Builder
 @AllArgsConstructor
 @NoArgsConstructor
-public class Message {
+public class Message implements Serializable {
+    public static final String TEXT_INDEX = "room_text";
+
     @Id
     private String messageId;
+    private String roomId;
+    private long seq;
     private String text;
     private String sender;
     private Date sentAt;
-    private Binary voiceMessage;
+    // Audio lives in the blob store, the message only carries the reference
+    private Attachment voice;
 }
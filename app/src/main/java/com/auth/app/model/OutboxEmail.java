@@ -0,0 +1,42 @@
+package com.auth.app.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * An email waiting in the outbox. It is deleted once sent, and kept as FAILED after its last attempt.
+ */
+@Document(collection = "emailOutbox")
+@CompoundIndex(name = "status_next_attempt", def = "{'status': 1, 'nextAttemptAt': 1}")
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class OutboxEmail {
+
+    public enum Status {
+        PENDING,
+        FAILED
+    }
+
+    @Id
+    private String id;
+    private String from;
+    private String to;
+    private String subject;
+    private String text;
+    private Status status;
+    private int attempts;
+    // While a worker holds the email this is the end of its lease, so a crashed worker's emails are picked up again
+    private Date nextAttemptAt;
+    private String claim;
+    private String lastError;
+    private Date createdAt;
+}
@@ -0,0 +1,26 @@
+package com.auth.app.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+@Document(collection = "readWatermarks")
+@CompoundIndex(name = "user_room", def = "{'userId': 1, 'roomId': 1}", unique = true)
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReadWatermark {
+    @Id
+    private String id;
+    private String userId;
+    private String roomId;
+    private long lastReadSeq;
+    private Date updatedAt;
+}
@@ -0,0 +1,28 @@
+package com.auth.app.model;
+
+import java.util.Set;
+
+/**
+ * Immutable snapshot of who belongs to a chat room and with which role.
+ */
+public record RoomMembership(String roomId, Set<String> participantIds, Set<String> groupAdmins, String createdBy) {
+
+    public static RoomMembership of(ChatRoom chatRoom) {
+        return new RoomMembership(chatRoom.getId(),
+                Set.copyOf(chatRoom.getParticipantIds()),
+                Set.copyOf(chatRoom.getGroupAdmins()),
+                chatRoom.getCreatedBy());
+    }
+
+    public boolean isParticipant(String userId) {
+        return participantIds.contains(userId);
+    }
+
+    public boolean isGroupAdmin(String userId) {
+        return groupAdmins.contains(userId);
+    }
+
+    public boolean isGroupCreator(String userId) {
+        return createdBy.equals(userId);
+    }
+}
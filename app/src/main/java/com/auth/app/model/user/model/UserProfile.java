@@ -0,0 +1,7 @@
+package com.auth.app.model.user.model;
+
+/**
+ * Public part of a {@link User}, read as a projection so password hashes, tokens and room lists stay in Mongo.
+ */
+public record UserProfile(String id, String username, String email) {
+}
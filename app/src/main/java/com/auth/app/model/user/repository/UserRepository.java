@@ -2,13 +2,16 @@ package com.auth.app.model.user.repository;
 
 
 import com.auth.app.model.user.model.User;
+import com.auth.app.model.user.model.UserProfile;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface UserRepository extends MongoRepository<User, String> {
+public interface UserRepository extends MongoRepository<User, String>, UserRepositoryCustom {
     Optional<User> findByUsername(String username);
 
     Boolean existsByEmail(String email);
@@ -20,4 +23,8 @@ public interface UserRepository extends MongoRepository<User, String> {
     Optional<User> findByEmail(String email);
     Optional<User> findByResetPasswordToken(String resetPasswordToken);
 
+    List<UserProfile> findProfilesByIdIn(Collection<String> ids);
+
+    Optional<UserProfile> findProfileByEmail(String email);
+
 }
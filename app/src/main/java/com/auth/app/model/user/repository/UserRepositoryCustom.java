@@ -0,0 +1,9 @@
+package com.auth.app.model.user.repository;
+
+public interface UserRepositoryCustom {
+    void addChatRoom(String userId, String roomId);
+
+    void removeChatRoom(String userId, String roomId);
+
+    void updatePassword(String username, String password);
+}
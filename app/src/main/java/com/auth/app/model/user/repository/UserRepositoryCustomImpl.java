@@ -0,0 +1,33 @@
+package com.auth.app.model.user.repository;
+
+import com.auth.app.model.user.model.User;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+@RequiredArgsConstructor
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public void addChatRoom(String userId, String roomId) {
+        mongoTemplate.updateFirst(new Query(Criteria.where("id").is(userId)),
+                new Update().addToSet("chatRooms", roomId), User.class);
+    }
+
+    @Override
+    public void removeChatRoom(String userId, String roomId) {
+        mongoTemplate.updateFirst(new Query(Criteria.where("id").is(userId)),
+                new Update().pull("chatRooms", roomId), User.class);
+    }
+
+    @Override
+    public void updatePassword(String username, String password) {
+        // Only the hash, so a concurrent change to the rest of the user is not overwritten
+        mongoTemplate.updateFirst(new Query(Criteria.where("username").is(username)),
+                new Update().set("password", password), User.class);
+    }
+}
@@ -0,0 +1,70 @@
+package com.auth.app.model.user.service;
+
+import com.auth.app.model.user.model.UserProfile;
+import com.auth.app.model.user.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared id to {@link UserProfile} cache. Misses are resolved together with a single {@code $in} query.
+ */
+@Service
+public class UserProfileCache {
+
+    private record Entry(UserProfile profile, long loadedAt) {
+    }
+
+    private final UserRepository userRepository;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public UserProfileCache(UserRepository userRepository,
+                            @Value("${chat.cache.profiles.max-size:50000}") int maxSize,
+                            @Value("${chat.cache.profiles.ttl-seconds:600}") long ttlSeconds) {
+        this.userRepository = userRepository;
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    /**
+     * Profiles of the given users keyed by id. Ids that do not belong to a user are missing from the result.
+     */
+    public Map<String, UserProfile> getProfiles(Collection<String> userIds) {
+        Map<String, UserProfile> profiles = new HashMap<>(userIds.size());
+        List<String> misses = new ArrayList<>();
+        long now = System.nanoTime();
+
+        for (String userId : userIds) {
+            Entry entry = entries.get(userId);
+            if (entry != null && now - entry.loadedAt() < ttlNanos) {
+                profiles.put(userId, entry.profile());
+            } else {
+                misses.add(userId);
+            }
+        }
+
+        if (!misses.isEmpty()) {
+            if (entries.size() + misses.size() > maxSize) {
+                entries.clear();
+            }
+            for (UserProfile profile : userRepository.findProfilesByIdIn(misses)) {
+                profiles.put(profile.id(), profile);
+                entries.put(profile.id(), new Entry(profile, now));
+            }
+        }
+        return profiles;
+    }
+
+    public void invalidate(String userId) {
+        entries.remove(userId);
+    }
+}
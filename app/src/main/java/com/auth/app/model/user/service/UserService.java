@@ -1,57 +1,166 @@
 package com.auth.app.model.user.service;
 
+import com.auth.app.DTO.ChatRoomSummary;
+import com.auth.app.DTO.SearchHit;
 import com.auth.app.exceptions.ChatRoomException;
 import com.auth.app.exceptions.InvalidEmailException;
 import com.auth.app.exceptions.InvalidPasswordException;
 import com.auth.app.exceptions.InvalidUserException;
-import com.auth.app.jwt.service.JwtService;
-import com.auth.app.model.ChatRoom;
+import com.auth.app.jwt.service.TokenClaims;
 import com.auth.app.model.Message;
+import com.auth.app.model.RoomMembership;
 import com.auth.app.model.user.model.User;
 import com.auth.app.model.user.repository.UserRepository;
 import com.auth.app.repository.ChatRoomRepository;
+import com.auth.app.repository.MessageRepository;
+import com.auth.app.service.MessageArchive;
+import com.auth.app.service.MessageWriter;
+import com.auth.app.service.ReadReceiptService;
+import com.auth.app.service.RecentMessageCache;
+import com.auth.app.service.RoomMembershipCache;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
 
 @Service
 @RequiredArgsConstructor
 public class UserService {
 
-    private final JwtService jwtService;
     private final UserRepository userRepository;
     private final ChatRoomRepository chatRoomRepository;
+    private final MessageRepository messageRepository;
+    private final MessageWriter messageWriter;
+    private final MessageArchive messageArchive;
+    private final RecentMessageCache recentMessageCache;
+    private final RoomMembershipCache roomMembershipCache;
+    private final UserProfileCache userProfileCache;
+    private final ReadReceiptService readReceiptService;
     private final PasswordEncoder passwordEncoder;
 
-    public List<ChatRoom> getAllChatRooms(String token) {
-        String id = jwtService.getId(token);
-        User user = userRepository.findById(id).orElseThrow();
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int MAX_REPLAY = 500;
+    // Deep pages of ranked results cost reading every hit before them, in every room searched
+    private static final int MAX_SEARCH_RESULTS = 1000;
 
-        Set<String> roomIds = user.getChatRooms();
-        List<ChatRoom> chatRooms = new ArrayList<>(roomIds.size());
-        for (String roomId : roomIds) {
-            if (roomId != null) {
-                chatRoomRepository.findById(roomId).ifPresent(chatRooms::add);
-            }
+    public List<ChatRoomSummary> getAllChatRooms(TokenClaims claims) {
+        Map<String, Long> watermarks = readReceiptService.getWatermarks(claims.id());
+        return chatRoomRepository.findSummaries(claims.id()).stream()
+                .map(room -> new ChatRoomSummary(room.id(), room.roomName(), room.memberCount(), room.lastSeq(),
+                        room.lastMessagePreview(), room.lastMessageSender(), room.lastActivityAt(),
+                        Math.max(0, room.lastSeq() - watermarks.getOrDefault(room.id(), 0L))))
+                .toList();
+    }
+
+    public List<Message> getAllMessages(TokenClaims claims, String roomId) throws ChatRoomException {
+        checkParticipant(claims.id(), roomId);
+        return recentMessageCache.all(roomId).orElseGet(() -> {
+            List<Message> messages = new ArrayList<>();
+            messageArchive.forEach(roomId, messages::addAll);
+            messages.addAll(messageRepository.findByRoomIdOrderByMessageIdAsc(roomId));
+            return messages;
+        });
+    }
+
+    /**
+     * Returns one page of a room's history in chronological order, read as a range scan over the {roomId, _id} index.
+     * With no cursor the latest page is returned, {@code before} pages back in time and {@code after} pages forward.
+     * Pages near the head of the room are served from the recent message cache, and pages that reach past the
+     * oldest message still in the messages collection continue into the archive.
+     */
+    public List<Message> getMessages(TokenClaims claims, String roomId, String before, String after, Integer limit) throws ChatRoomException {
+        checkParticipant(claims.id(), roomId);
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+
+        if (after != null) {
+            return recentMessageCache.after(roomId, after, pageSize).orElseGet(() -> {
+                List<Message> messages = new ArrayList<>(messageArchive.after(roomId, after, pageSize));
+                String from = messages.isEmpty() ? after : messages.get(messages.size() - 1).getMessageId();
+                if (messages.size() < pageSize) {
+                    messages.addAll(messageRepository.findByRoomIdAndMessageIdGreaterThan(roomId, from,
+                            PageRequest.of(0, pageSize - messages.size(), Sort.by(Sort.Direction.ASC, "messageId"))));
+                }
+                return messages;
+            });
+        }
+        Optional<List<Message>> cached = before != null
+                ? recentMessageCache.before(roomId, before, pageSize)
+                : recentMessageCache.latest(roomId, pageSize);
+        if (cached.isPresent()) {
+            return cached.get();
         }
-        return chatRooms;
+
+        Pageable newestFirst = PageRequest.of(0, pageSize, Sort.by(Sort.Direction.DESC, "messageId"));
+        List<Message> page = before != null
+                ? messageRepository.findByRoomIdAndMessageIdLessThan(roomId, before, newestFirst)
+                : messageRepository.findByRoomId(roomId, newestFirst);
+        List<Message> messages = new ArrayList<>(page);
+        Collections.reverse(messages);
+        if (messages.size() < pageSize) {
+            String olderThan = messages.isEmpty() ? before : messages.get(0).getMessageId();
+            messages.addAll(0, messageArchive.before(roomId, olderThan, pageSize - messages.size()));
+        }
+        return messages;
     }
 
-    public List<Message> getAllMessages(String token, String roomId) throws ChatRoomException {
-        String userId = jwtService.getId(token);
-        ChatRoom chatRoom = chatRoomRepository.findById(roomId)
-                .orElseThrow(() -> new ChatRoomException("Chat room does not exist"));
-        if (!chatRoom.getParticipantIds().contains(userId)) {
-            throw new ChatRoomException("User is not a part of this chat room.");
+    /**
+     * Replays what a reconnecting client missed: the messages of a room after its last seen sequence number,
+     * at most {@code MAX_REPLAY} at a time. Buffered messages that are not yet in Mongo are included.
+     */
+    public List<Message> getMessagesSince(TokenClaims claims, String roomId, long lastSeenSeq) throws ChatRoomException {
+        checkParticipant(claims.id(), roomId);
+
+        Optional<List<Message>> cached = recentMessageCache.since(roomId, lastSeenSeq, MAX_REPLAY);
+        if (cached.isPresent()) {
+            return cached.get();
         }
-        return chatRoom.getMessages();
+
+        NavigableMap<Long, Message> missed = new TreeMap<>();
+        messageArchive.since(roomId, lastSeenSeq, MAX_REPLAY).forEach(message -> missed.put(message.getSeq(), message));
+        messageWriter.unpersisted(roomId, lastSeenSeq).forEach(message -> missed.putIfAbsent(message.getSeq(), message));
+        messageRepository.findByRoomIdAndSeqGreaterThan(roomId, lastSeenSeq,
+                        PageRequest.of(0, MAX_REPLAY, Sort.by(Sort.Direction.ASC, "seq")))
+                .forEach(message -> missed.putIfAbsent(message.getSeq(), message));
+
+        return missed.values().stream().limit(MAX_REPLAY).toList();
+    }
+    /**
+     * Ranked full-text search over the rooms the user belongs to, or over one of them when {@code roomId} is given.
+     * Only messages still in the messages collection are searched: once the retention job has moved a message to
+     * the archive it no longer turns up here, though history paging and exports still return it.
+     */
+    public List<SearchHit> searchMessages(TokenClaims claims, String query, String roomId, Integer page, Integer limit) throws ChatRoomException {
+        if (query == null || query.isBlank()) {
+            throw new ChatRoomException("Search query must not be empty");
+        }
+        List<String> roomIds;
+        if (roomId != null) {
+            checkParticipant(claims.id(), roomId);
+            roomIds = List.of(roomId);
+        } else {
+            roomIds = chatRoomRepository.findRoomIds(claims.id());
+        }
+        if (roomIds.isEmpty()) {
+            return List.of();
+        }
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        // Each room is read down to the end of the page, so the page is capped by how deep that reaches
+        int pageNumber = page == null ? 0 : Math.max(0, Math.min(page, MAX_SEARCH_RESULTS / pageSize - 1));
+        return messageRepository.search(query, roomIds, pageNumber, pageSize);
     }
-    public void changePassword(String token, String oldPassword, String newPassword) throws InvalidPasswordException, InvalidUserException {
-        String userId = jwtService.getId(token);
+    public void changePassword(TokenClaims claims, String oldPassword, String newPassword) throws InvalidPasswordException, InvalidUserException {
+        String userId = claims.id();
         User user = userRepository.findById(userId).orElseThrow(() -> new InvalidUserException("User does not exist"));
 
         if (!passwordEncoder.matches(oldPassword, user.getPassword())) {
@@ -60,8 +169,8 @@ public class UserService {
         user.setPassword(passwordEncoder.encode(newPassword));
         userRepository.save(user);
     }
-    public void changeEmail(String token, String newEmail) throws InvalidEmailException {
-        String userId = jwtService.getId(token);
+    public void changeEmail(TokenClaims claims, String newEmail) throws InvalidEmailException {
+        String userId = claims.id();
         User user = userRepository.findById(userId).orElseThrow(() -> new InvalidEmailException("Invalid email"));
         if (userRepository.existsByEmail(newEmail)) {
             throw new InvalidEmailException("Email is already in use");
@@ -71,6 +180,13 @@ public class UserService {
 
         user.setEmail(newEmail);
         userRepository.save(user);
+        userProfileCache.invalidate(userId);
+    }
+    private void checkParticipant(String userId, String roomId) throws ChatRoomException {
+        RoomMembership room = roomMembershipCache.get(roomId)
+                .orElseThrow(() -> new ChatRoomException("Chat room does not exist"));
+        if (!room.isParticipant(userId)) {
+            throw new ChatRoomException("User is not a part of this chat room.");
+        }
     }
-
 }
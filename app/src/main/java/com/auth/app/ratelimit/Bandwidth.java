@@ -0,0 +1,11 @@
+package com.auth.app.ratelimit;
+
+/**
+ * A token bucket holding at most {@code capacity} tokens and gaining one every {@code refillMillis}.
+ */
+public record Bandwidth(int capacity, long refillMillis) {
+
+    public static Bandwidth perMinute(int capacity, int refillsPerMinute) {
+        return new Bandwidth(capacity, Math.max(1, 60_000L / refillsPerMinute));
+    }
+}
@@ -0,0 +1,49 @@
+package com.auth.app.ratelimit;
+
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps buckets in memory on this node only. Every bucket is one {@link AtomicLong} updated with compare-and-set,
+ * so concurrent requests never block each other.
+ */
+public class LocalRateLimitStore implements RateLimitStore {
+
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+    @Override
+    public long tryAcquire(String key, Bandwidth bandwidth, long nowMillis) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(Long.MIN_VALUE));
+        }
+        long burst = bandwidth.capacity() * bandwidth.refillMillis();
+        while (true) {
+            long arrival = bucket.get();
+            long next = Math.max(arrival, nowMillis) + bandwidth.refillMillis();
+            if (next - nowMillis > burst) {
+                return next - nowMillis - burst;
+            }
+            if (bucket.compareAndSet(arrival, next)) {
+                return 0;
+            }
+        }
+    }
+
+    // A bucket whose next arrival has passed is full again and the same as one that does not exist
+    @Scheduled(fixedDelay = 60_000)
+    public void evictFull() {
+        evictFull(System.currentTimeMillis());
+    }
+
+    void evictFull(long nowMillis) {
+        buckets.values().removeIf(bucket -> bucket.get() <= nowMillis);
+    }
+
+    int size() {
+        return buckets.size();
+    }
+}
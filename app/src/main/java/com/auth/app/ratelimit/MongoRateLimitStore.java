@@ -0,0 +1,49 @@
+package com.auth.app.ratelimit;
+
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.List;
+
+/**
+ * Shares buckets between nodes through a Mongo collection. Each attempt is a single findAndModify with an update
+ * pipeline, so the check and the update are atomic on the server. A TTL index drops buckets once they are full.
+ */
+public class MongoRateLimitStore implements RateLimitStore {
+
+    private final MongoTemplate mongoTemplate;
+    private final String collection;
+
+    public MongoRateLimitStore(MongoTemplate mongoTemplate, String collection) {
+        this.mongoTemplate = mongoTemplate;
+        this.collection = collection;
+        mongoTemplate.indexOps(collection).ensureIndex(new Index("expireAt", Sort.Direction.ASC).expire(0));
+    }
+
+    @Override
+    public long tryAcquire(String key, Bandwidth bandwidth, long nowMillis) {
+        long burst = bandwidth.capacity() * bandwidth.refillMillis();
+        AggregationOperation next = context -> new Document("$set", new Document("next",
+                new Document("$add", List.of(new Document("$max", List.of(new Document("$ifNull", List.of("$arrival", nowMillis)), nowMillis)),
+                        bandwidth.refillMillis()))));
+        AggregationOperation decide = context -> new Document("$set", new Document("allowed",
+                new Document("$lte", List.of(new Document("$subtract", List.of("$next", nowMillis)), burst))));
+        AggregationOperation apply = context -> new Document("$set", new Document("arrival",
+                new Document("$cond", List.of("$allowed", "$next", new Document("$ifNull", List.of("$arrival", nowMillis)))))
+                .append("expireAt", new Document("$toDate", new Document("$cond", List.of("$allowed", "$next", "$arrival")))));
+        Document bucket = mongoTemplate.findAndModify(new Query(Criteria.where("_id").is(key)),
+                AggregationUpdate.from(List.of(next, decide, apply)),
+                FindAndModifyOptions.options().upsert(true).returnNew(true), Document.class, collection);
+        if (bucket == null || bucket.getBoolean("allowed", true)) {
+            return 0;
+        }
+        return bucket.get("next", Number.class).longValue() - nowMillis - burst;
+    }
+}
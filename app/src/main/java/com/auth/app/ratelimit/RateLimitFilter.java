@@ -0,0 +1,206 @@
+package com.auth.app.ratelimit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Throttles the unauthenticated endpoints that cost a password hash or an email. Every request takes a token from
+ * its client address's bucket, and requests naming an account also from that account's bucket, so neither one
+ * address nor a spread of addresses aimed at one account can keep the hashing pool busy. Rejections are answered
+ * straight from the filter with 429 and Retry-After.
+ * <p>
+ * The client address is {@link HttpServletRequest#getRemoteAddr()}. Behind a load balancer that is the balancer's
+ * own address, shared by every client, unless {@code server.forward-headers-strategy=native} lets the container
+ * resolve it from X-Forwarded-For sent by a trusted proxy ({@code server.tomcat.remoteip.internal-proxies}).
+ * <p>
+ * When the store cannot be reached requests are let through rather than locking everyone out.
+ */
+@Log4j2
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    // Endpoint to the JSON field naming the account, the reset endpoint is only limited by address
+    private static final Map<String, String> ACCOUNT_FIELDS = Map.of(
+            "/api/auth/authenticate", "usernameOrEmail",
+            "/api/auth/register", "email",
+            "/api/auth/recovery", "email");
+    private static final String RESET_PATH = "/api/auth/reset";
+    private static final int MAX_BODY_BYTES = 16 * 1024;
+
+    private final RateLimitStore store;
+    private final ObjectMapper objectMapper;
+    private final Clock clock;
+    private final Bandwidth addressBandwidth;
+    private final Bandwidth accountBandwidth;
+    private final Counter rejectedByAddress;
+    private final Counter rejectedByAccount;
+
+    public RateLimitFilter(RateLimitStore store, ObjectMapper objectMapper, MeterRegistry meterRegistry, Clock clock,
+                           Bandwidth addressBandwidth, Bandwidth accountBandwidth) {
+        this.store = store;
+        this.objectMapper = objectMapper;
+        this.clock = clock;
+        this.addressBandwidth = addressBandwidth;
+        this.accountBandwidth = accountBandwidth;
+        this.rejectedByAddress = Counter.builder("auth.ratelimit.rejected").tag("bucket", "address").register(meterRegistry);
+        this.rejectedByAccount = Counter.builder("auth.ratelimit.rejected").tag("bucket", "account").register(meterRegistry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = path(request);
+        return !ACCOUNT_FIELDS.containsKey(path) && !path.equals(RESET_PATH);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        long now = clock.millis();
+        // Already the forwarded client address when the container resolves forward headers
+        long wait = acquire("address:" + request.getRemoteAddr(), addressBandwidth, now);
+        if (wait > 0) {
+            rejectedByAddress.increment();
+            reject(response, wait);
+            return;
+        }
+
+        String field = ACCOUNT_FIELDS.get(path(request));
+        if (field != null) {
+            byte[] body = request.getInputStream().readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                response.sendError(HttpStatus.PAYLOAD_TOO_LARGE.value());
+                return;
+            }
+            String account = account(body, field);
+            if (account != null) {
+                wait = acquire("account:" + account, accountBandwidth, now);
+                if (wait > 0) {
+                    rejectedByAccount.increment();
+                    reject(response, wait);
+                    return;
+                }
+            }
+            request = new CachedBodyRequest(request, body);
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    private static String path(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+
+    private long acquire(String key, Bandwidth bandwidth, long now) {
+        try {
+            return store.tryAcquire(key, bandwidth, now);
+        } catch (RuntimeException e) {
+            log.warn("Rate limit store failed, letting the request through", e);
+            return 0;
+        }
+    }
+
+    private String account(byte[] body, String field) {
+        try {
+            JsonNode value = objectMapper.readTree(body).get(field);
+            return value != null && value.isTextual() ? value.asText().trim().toLowerCase(Locale.ROOT) : null;
+        } catch (IOException e) {
+            // Left for the controller to reject
+            return null;
+        }
+    }
+
+    private void reject(HttpServletResponse response, long waitMillis) throws IOException {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, (waitMillis + 999) / 1000)));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), Map.of("message", "Too many requests, try again later"));
+    }
+
+    /**
+     * Replays a body the filter has already read to whatever handles the request next.
+     */
+    private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+        private final byte[] body;
+
+        private CachedBodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    // The whole body is already in memory, so it is available at once and then fully read
+                    try {
+                        if (!isFinished()) {
+                            readListener.onDataAvailable();
+                        }
+                        readListener.onAllDataRead();
+                    } catch (IOException e) {
+                        readListener.onError(e);
+                    }
+                }
+
+                @Override
+                public int read() {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) {
+                    return in.read(buffer, offset, length);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body),
+                    getCharacterEncoding() != null ? Charset.forName(getCharacterEncoding()) : StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public int getContentLength() {
+            return body.length;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return body.length;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.auth.app.ratelimit;
+
+/**
+ * Holds the state of the rate limit buckets. Buckets are kept as the theoretical arrival time of the next request
+ * (GCRA), which behaves exactly like a token bucket but is a single number that can be updated atomically.
+ */
+public interface RateLimitStore {
+
+    /**
+     * Takes one token from the bucket {@code key}.
+     *
+     * @return 0 when the token was taken, otherwise the milliseconds until one becomes available
+     */
+    long tryAcquire(String key, Bandwidth bandwidth, long nowMillis);
+}
@@ -0,0 +1,27 @@
+package com.auth.app.repository;
+
+import com.auth.app.model.ArchiveSegment;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+public interface ArchiveSegmentRepository extends MongoRepository<ArchiveSegment, String> {
+    boolean existsByRoomId(String roomId);
+
+    Optional<ArchiveSegment> findFirstByRoomIdOrderByLastSeqDesc(String roomId);
+
+    Optional<ArchiveSegment> findFirstByRoomIdAndFirstMessageIdLessThanEqualOrderByFirstMessageIdDesc(String roomId, String messageId);
+
+    List<ArchiveSegment> findByRoomIdAndFirstMessageIdLessThan(String roomId, String messageId, Pageable pageable);
+
+    List<ArchiveSegment> findByRoomIdAndLastMessageIdGreaterThan(String roomId, String messageId, Pageable pageable);
+
+    List<ArchiveSegment> findByRoomIdAndLastSeqGreaterThan(String roomId, long seq, Pageable pageable);
+
+    List<ArchiveSegment> findByRoomId(String roomId, Pageable pageable);
+
+    Stream<ArchiveSegment> findByRoomIdOrderByFirstMessageIdAsc(String roomId);
+}
@@ -3,5 +3,5 @@ package com.auth.app.repository;
 import com.auth.app.model.ChatRoom;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
-public interface ChatRoomRepository extends MongoRepository<ChatRoom, String> {
+public interface ChatRoomRepository extends MongoRepository<ChatRoom, String>, ChatRoomRepositoryCustom {
 }
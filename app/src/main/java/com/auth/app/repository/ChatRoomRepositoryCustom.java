@@ -0,0 +1,43 @@
+package com.auth.app.repository;
+
+import com.auth.app.DTO.ChatRoomSummary;
+import com.auth.app.model.Message;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Targeted updates and projections on chat rooms. The membership methods are single conditional updates that
+ * return {@code false} when the room does not exist or its permission condition does not hold, in which case
+ * nothing was written.
+ */
+public interface ChatRoomRepositoryCustom {
+    boolean addParticipant(String roomId, String userId);
+
+    boolean removeParticipant(String roomId, String userId);
+
+    boolean addGroupAdmin(String roomId, String adminId, String userId);
+
+    boolean removeGroupAdmin(String roomId, String creatorId, String adminId);
+
+    boolean kickParticipant(String roomId, String adminId, String userId);
+
+    /**
+     * Atomically hands out the room's next message sequence number from a counter kept on the room document.
+     * The counter starts after the room's head the first time it is used.
+     */
+    long nextSeq(String roomId);
+
+    /**
+     * Moves each room's head to the given message unless the room already points at a later one.
+     */
+    void updateHeads(Collection<Message> latestMessages);
+
+    List<String> findRoomIds(String userId);
+
+    /**
+     * Summaries of every room the user belongs to, most recently active first. Unread counts are left at zero
+     * for the caller to fill in from the user's read watermarks.
+     */
+    List<ChatRoomSummary> findSummaries(String userId);
+}
@@ -0,0 +1,145 @@
+package com.auth.app.repository;
+
+import com.auth.app.DTO.ChatRoomSummary;
+import com.auth.app.model.ChatRoom;
+import com.auth.app.model.Message;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AccumulatorOperators;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ArrayOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+@RequiredArgsConstructor
+public class ChatRoomRepositoryCustomImpl implements ChatRoomRepositoryCustom {
+
+    private static final int PREVIEW_LENGTH = 100;
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public boolean addParticipant(String roomId, String userId) {
+        Query query = new Query(Criteria.where("id").is(roomId).and("participantIds").ne(userId));
+        return update(query, new Update().addToSet("participantIds", userId));
+    }
+
+    @Override
+    public boolean removeParticipant(String roomId, String userId) {
+        Query query = new Query(Criteria.where("id").is(roomId).and("participantIds").is(userId));
+        return update(query, new Update().pull("participantIds", userId).pull("groupAdmins", userId));
+    }
+
+    @Override
+    public boolean addGroupAdmin(String roomId, String adminId, String userId) {
+        Query query = new Query(Criteria.where("id").is(roomId)
+                .and("groupAdmins").is(adminId)
+                .and("participantIds").is(userId));
+        return update(query, new Update().addToSet("groupAdmins", userId));
+    }
+
+    @Override
+    public boolean removeGroupAdmin(String roomId, String creatorId, String adminId) {
+        Query query = new Query(Criteria.where("id").is(roomId)
+                .and("createdBy").is(creatorId)
+                .and("groupAdmins").is(adminId));
+        return update(query, new Update().pull("groupAdmins", adminId));
+    }
+
+    @Override
+    public boolean kickParticipant(String roomId, String adminId, String userId) {
+        // Admins may kick participants, only the creator may kick other admins
+        Criteria allowed = new Criteria().orOperator(
+                Criteria.where("groupAdmins").all(adminId).nin(userId),
+                Criteria.where("groupAdmins").is(adminId).and("createdBy").is(adminId),
+                Criteria.where("createdBy").is(adminId).and("groupAdmins").is(userId));
+        Query query = new Query(Criteria.where("id").is(roomId)
+                .and("participantIds").is(userId)
+                .andOperator(allowed));
+        return update(query, new Update().pull("participantIds", userId).pull("groupAdmins", userId));
+    }
+
+    @Override
+    public long nextSeq(String roomId) {
+        // seqCounter is left out of the ChatRoom mapping, this update is the only thing that writes it
+        AggregationUpdate update = AggregationUpdate.update().set("seqCounter").toValue(
+                ArithmeticOperators.Add.valueOf(AccumulatorOperators.Max.maxOf("seqCounter").and("lastSeq")).add(1));
+        Document room = mongoTemplate.findAndModify(new Query(Criteria.where("_id").is(mongoTemplate.getConverter().convertId(roomId, ObjectId.class))), update,
+                FindAndModifyOptions.options().returnNew(true), Document.class, mongoTemplate.getCollectionName(ChatRoom.class));
+        if (room == null) {
+            throw new IllegalArgumentException("Chat room " + roomId + " does not exist");
+        }
+        return room.get("seqCounter", Number.class).longValue();
+    }
+
+    @Override
+    public void updateHeads(Collection<Message> latestMessages) {
+        if (latestMessages.isEmpty()) {
+            return;
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ChatRoom.class);
+        for (Message message : latestMessages) {
+            Query query = new Query(Criteria.where("id").is(message.getRoomId())
+                    .orOperator(Criteria.where("lastSeq").lt(message.getSeq()), Criteria.where("lastSeq").exists(false)));
+            Update update = new Update()
+                    .set("lastSeq", message.getSeq())
+                    .set("lastMessagePreview", preview(message.getText()))
+                    .set("lastMessageSender", message.getSender())
+                    .set("lastActivityAt", message.getSentAt());
+            bulk.updateOne(query, update);
+        }
+        bulk.execute();
+    }
+
+    @Override
+    public List<ChatRoomSummary> findSummaries(String userId) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("participantIds").is(userId)),
+                Aggregation.project("roomName", "lastSeq", "lastMessagePreview", "lastMessageSender")
+                        .and(ArrayOperators.Size.lengthOfArray("participantIds")).as("memberCount")
+                        .and(ConditionalOperators.ifNull("lastActivityAt").thenValueOf("createdAt")).as("lastActivityAt"),
+                Aggregation.sort(Sort.Direction.DESC, "lastActivityAt"));
+
+        return mongoTemplate.aggregate(aggregation, ChatRoom.class, SummaryRow.class)
+                .getMappedResults()
+                .stream()
+                .map(row -> new ChatRoomSummary(row.id(), row.roomName(), row.memberCount(), row.lastSeq(),
+                        row.lastMessagePreview(), row.lastMessageSender(), row.lastActivityAt(), 0))
+                .toList();
+    }
+
+    @Override
+    public List<String> findRoomIds(String userId) {
+        Query query = new Query(Criteria.where("participantIds").is(userId));
+        query.fields().include("_id");
+        return mongoTemplate.find(query, ChatRoom.class).stream().map(ChatRoom::getId).toList();
+    }
+
+    private record SummaryRow(String id, String roomName, int memberCount, long lastSeq, String lastMessagePreview,
+                              String lastMessageSender, Date lastActivityAt) {
+    }
+
+    private static String preview(String text) {
+        if (text == null || text.length() <= PREVIEW_LENGTH) {
+            return text;
+        }
+        return text.substring(0, PREVIEW_LENGTH);
+    }
+
+    private boolean update(Query query, Update update) {
+        return mongoTemplate.updateFirst(query, update, ChatRoom.class).getMatchedCount() > 0;
+    }
+}
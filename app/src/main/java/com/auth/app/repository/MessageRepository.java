@@ -1,7 +1,22 @@
 package com.auth.app.repository;
 
 import com.auth.app.model.Message;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
-public interface MessageRepository extends MongoRepository<Message, String> {
+import java.util.List;
+import java.util.Optional;
+
+public interface MessageRepository extends MongoRepository<Message, String>, MessageRepositoryCustom {
+    List<Message> findByRoomIdOrderByMessageIdAsc(String roomId);
+
+    List<Message> findByRoomId(String roomId, Pageable pageable);
+
+    List<Message> findByRoomIdAndMessageIdLessThan(String roomId, String messageId, Pageable pageable);
+
+    List<Message> findByRoomIdAndMessageIdGreaterThan(String roomId, String messageId, Pageable pageable);
+
+    List<Message> findByRoomIdAndSeqGreaterThan(String roomId, long seq, Pageable pageable);
+
+    Optional<Message> findFirstByRoomIdOrderBySeqDesc(String roomId);
 }
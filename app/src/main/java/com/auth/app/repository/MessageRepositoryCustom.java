@@ -0,0 +1,16 @@
+package com.auth.app.repository;
+
+import com.auth.app.DTO.SearchHit;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface MessageRepositoryCustom {
+
+    /**
+     * Messages of the given rooms matching the search terms through the text index, best match first and newest
+     * first among equal scores. Archived messages are not in the text index and never match. Runs one indexed query
+     * per room, each reading up to the end of the requested page.
+     */
+    List<SearchHit> search(String terms, Collection<String> roomIds, int page, int pageSize);
+}
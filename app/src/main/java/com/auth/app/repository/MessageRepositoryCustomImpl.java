@@ -0,0 +1,52 @@
+package com.auth.app.repository;
+
+import com.auth.app.DTO.SearchHit;
+import com.auth.app.model.Message;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+@RequiredArgsConstructor
+public class MessageRepositoryCustomImpl implements MessageRepositoryCustom {
+
+    private static final String SCORE = "score";
+    private static final Comparator<SearchHit> RANKING = Comparator.comparingDouble(SearchHit::score).reversed()
+            .thenComparing(hit -> hit.message().getMessageId(), Comparator.reverseOrder());
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public List<SearchHit> search(String terms, Collection<String> roomIds, int page, int pageSize) {
+        // The text index is prefixed by roomId and only serves equality on it, so each room is searched on its own.
+        // Every room contributes its best hits down to the end of the requested page, then they are merged.
+        int window = (page + 1) * pageSize;
+        List<SearchHit> hits = new ArrayList<>();
+        for (String roomId : roomIds) {
+            Query query = TextQuery.queryText(TextCriteria.forDefaultLanguage().matching(terms))
+                    .sortByScore()
+                    .includeScore(SCORE)
+                    .addCriteria(Criteria.where("roomId").is(roomId))
+                    .with(Sort.by(Sort.Direction.DESC, "messageId"))
+                    .limit(window);
+            for (Document document : mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(Message.class))) {
+                Number score = document.get(SCORE, Number.class);
+                hits.add(new SearchHit(mongoTemplate.getConverter().read(Message.class, document), score != null ? score.floatValue() : 0f));
+            }
+        }
+        return hits.stream()
+                .sorted(RANKING)
+                .skip((long) page * pageSize)
+                .limit(pageSize)
+                .toList();
+    }
+}
@@ -0,0 +1,10 @@
+package com.auth.app.repository;
+
+import com.auth.app.model.ReadWatermark;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+public interface ReadWatermarkRepository extends MongoRepository<ReadWatermark, String> {
+    List<ReadWatermark> findByUserId(String userId);
+}
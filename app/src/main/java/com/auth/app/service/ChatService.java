@@ -1,39 +1,58 @@
 package com.auth.app.service;
 
+import com.auth.app.DTO.ChatRoomSummary;
+import com.auth.app.cluster.ClusterBus;
 import com.auth.app.exceptions.ChatRoomException;
 import com.auth.app.exceptions.InvalidInvitationException;
 import com.auth.app.exceptions.InvalidUserException;
-import com.auth.app.jwt.service.JwtService;
+import com.auth.app.exceptions.MessageRejectedException;
+import com.auth.app.jwt.service.TokenClaims;
+import com.auth.app.model.Attachment;
 import com.auth.app.model.ChatRoom;
 import com.auth.app.model.Invitation;
 import com.auth.app.model.Message;
-import com.auth.app.model.user.model.User;
+import com.auth.app.model.RoomMembership;
+import com.auth.app.model.user.model.UserProfile;
 import com.auth.app.model.user.repository.UserRepository;
+import com.auth.app.model.user.service.UserProfileCache;
 import com.auth.app.model.user.service.UserService;
 import com.auth.app.repository.ChatRoomRepository;
 import com.auth.app.repository.InvitationRepository;
-import com.auth.app.repository.MessageRepository;
 import io.jsonwebtoken.JwtException;
 import lombok.RequiredArgsConstructor;
+import org.bson.types.ObjectId;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class ChatService {
 
-    private final JwtService jwtService;
+    private static final int LOCK_STRIPES = 64;
+
     private final ChatRoomRepository chatRoomRepository;
     private final InvitationRepository invitationRepository;
-    private final MessageRepository messageRepository;
+    private final MessageWriter messageWriter;
+    private final MessageSequencer messageSequencer;
+    private final RecentMessageCache recentMessageCache;
+    private final RoomMembershipCache roomMembershipCache;
+    private final ReadReceiptService readReceiptService;
     private final UserRepository userRepository;
     private final UserService userService;
-
-    public void createChatRoom(String token, String roomName) {
-        String userId = jwtService.getId(token);
-        User user = userRepository.findById(userId).orElseThrow();
+    private final UserProfileCache userProfileCache;
+    private final ClusterBus clusterBus;
+    private final ExecutorService messageSendExecutor;
+    private final RoomBroadcaster roomBroadcaster;
+    private final Object[] locks = Stream.generate(Object::new).limit(LOCK_STRIPES).toArray();
+
+    public void createChatRoom(TokenClaims claims, String roomName) {
+        String userId = claims.id();
         Set<String> participants = new HashSet<>();
         participants.add(userId);
         Set<String> admins = new HashSet<>();
@@ -43,25 +62,19 @@ public class ChatService {
                 .roomName(roomName)
                 .participantIds(participants)
                 .groupAdmins(admins)
-                .messages(new ArrayList<>())
                 .createdAt(new Date())
                 .createdBy(userId)
                 .build();
 
         chatRoomRepository.save(chatRoom);
-
-        Set<String> userChatRooms = user.getChatRooms();
-        userChatRooms.add(chatRoom.getId());
-        user.setChatRooms(userChatRooms);
-
-        userRepository.save(user);
+        userRepository.addChatRoom(userId, chatRoom.getId());
     }
 
-    public String createInvite(String token, String roomId) {
-        ChatRoom chatRoom = chatRoomRepository.findById(roomId).orElseThrow();
-        String userId = jwtService.getId(token);
+    public String createInvite(TokenClaims claims, String roomId) {
+        RoomMembership room = roomMembershipCache.get(roomId).orElseThrow();
+        String userId = claims.id();
 
-        if (!chatRoom.getParticipantIds().contains(userId)){
+        if (!room.isParticipant(userId)){
             throw new RuntimeException("User " + userId + "is not in chat room");
         }
 
@@ -76,9 +89,8 @@ public class ChatService {
 
         return invitation.getInvitationLink();
     }
-    public void acceptInvite(String token, String invitationLink) throws InvalidInvitationException, ChatRoomException {
-        String userId = jwtService.getId(token);
-        User user = userRepository.findById(userId).orElseThrow();
+    public void acceptInvite(TokenClaims claims, String invitationLink) throws InvalidInvitationException, ChatRoomException {
+        String userId = claims.id();
         Invitation invitation = invitationRepository.findByInvitationLink(invitationLink)
                 .orElseThrow(() -> new InvalidInvitationException("Invitation link is not valid"));
 
@@ -86,145 +98,197 @@ public class ChatService {
             throw new InvalidInvitationException("Invitation link is expired");
         }
 
-        ChatRoom chatRoom = chatRoomRepository.findById(invitation.getChatroomId()).orElseThrow();
-        Set<String> chatRoomParticipants = chatRoom.getParticipantIds();
-        Set<String> userChatRooms = user.getChatRooms();
-
-        if (chatRoomParticipants.contains(userId)){
+        String roomId = invitation.getChatroomId();
+        if (!chatRoomRepository.addParticipant(roomId, userId)){
+            if (!chatRoomRepository.existsById(roomId)) {
+                throw new ChatRoomException("Chat room does not exist");
+            }
             throw new ChatRoomException("User is already part of this room");
         }
-
-        chatRoomParticipants.add(userId);
-        chatRoom.setParticipantIds(chatRoomParticipants);
-        chatRoomRepository.save(chatRoom);
+        roomMembershipCache.invalidate(roomId);
 
         invitation.setExpired(true);
         invitationRepository.save(invitation);
-        
-        userChatRooms.add(chatRoom.getId());
-        userRepository.save(user);
+
+        userRepository.addChatRoom(userId, roomId);
     }
-    public List<ChatRoom> leaveChatRoom(String token, String roomId) throws ChatRoomException, InvalidUserException {
-        String userId = jwtService.getId(token);
-        User user = userRepository.findById(userId).orElseThrow(() -> new InvalidUserException("User does not exist"));
-        ChatRoom chatRoom = chatRoomRepository.findById(roomId)
-                .orElseThrow(() -> new ChatRoomException("Chat room does not exist"));
+    public List<ChatRoomSummary> leaveChatRoom(TokenClaims claims, String roomId) throws ChatRoomException, InvalidUserException {
+        String userId = claims.id();
 
-        if (!chatRoom.getParticipantIds().contains(userId)) {
+        if (!chatRoomRepository.removeParticipant(roomId, userId)) {
+            if (!chatRoomRepository.existsById(roomId)) {
+                throw new ChatRoomException("Chat room does not exist");
+            }
             throw new ChatRoomException("User is not a part of this chat room.");
         }
+        roomMembershipCache.invalidate(roomId);
+        userRepository.removeChatRoom(userId, roomId);
 
-        removeChatRoomFromUser(user, chatRoom.getId());
-        removeParticipantsFromChatRoom(chatRoom, user.getId());
-
-        return userService.getAllChatRooms(token);
+        return userService.getAllChatRooms(claims);
+    }
+    /**
+     * Creates a message, hands it to the write-behind buffer and broadcasts it to the room. The returned future
+     * reports when it is stored.
+     *
+     * @throws MessageRejectedException when the buffer is full, before a sequence number is taken
+     */
+    public MessageWriter.Accepted sendMessage(String roomId, String text, TokenClaims claims){
+        return sendMessage(roomId, text, null, claims);
+    }
+    /**
+     * {@link #sendMessage} for callers that must not block, such as socket event handlers. In clustered mode
+     * every sequence number is a Mongo round trip on the room document, so the send runs on the send executor;
+     * standalone numbering is in memory and the send runs on the calling thread.
+     */
+    public CompletableFuture<MessageWriter.Accepted> sendMessageAsync(String roomId, String text, TokenClaims claims){
+        if (!clusterBus.isClustered()) {
+            try {
+                return CompletableFuture.completedFuture(sendMessage(roomId, text, claims));
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> sendMessage(roomId, text, claims), messageSendExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new MessageRejectedException("Too many messages are waiting to be sent, try again later"));
+        }
     }
-    public Message sendMessage(String roomId, String text, String token){
-        String userId = jwtService.getId(token);
-        String username = jwtService.getEmail(token);
+    public MessageWriter.Accepted sendVoiceMessage(String roomId, Attachment voice, TokenClaims claims){
+        return sendMessage(roomId, null, voice, claims);
+    }
+    private MessageWriter.Accepted sendMessage(String roomId, String text, Attachment voice, TokenClaims claims){
+        String userId = claims.id();
+        String username = claims.email();
 
-        ChatRoom chatRoom = chatRoomRepository.findById(roomId).orElseThrow();
-        Set<String> participants = chatRoom.getParticipantIds();
-        List<Message> messages = chatRoom.getMessages();
+        RoomMembership room = roomMembershipCache.get(roomId).orElseThrow();
 
-        if (!participants.contains(userId)){
+        if (!room.isParticipant(userId)){
             throw new JwtException("User " + userId + "is not a participant of this group");
         }
-        Message message = Message.builder()
-                .sender(username)
-                .text(text)
-                .sentAt(new Date())
-                .build();
-        messageRepository.save(message);
-
-        messages.add(message);
-        chatRoom.setMessages(messages);
-
-        chatRoomRepository.save(chatRoom);
-
-        return message;
+        MessageWriter.Accepted accepted;
+        // Numbering and broadcasting under one lock per room, so concurrent senders reach the room in seq order
+        synchronized (lock(roomId)) {
+            // The id is assigned up front so the message can be broadcast before the write-behind flush stores it
+            accepted = messageWriter.write(() -> Message.builder()
+                    .messageId(new ObjectId().toHexString())
+                    .roomId(roomId)
+                    .seq(messageSequencer.next(roomId))
+                    .sender(username)
+                    .text(text)
+                    .voice(voice)
+                    .sentAt(new Date())
+                    .build());
+            // Cached before it is broadcast, so a client reading the cache after joining the room cannot miss it
+            recentMessageCache.append(accepted.message());
+            roomBroadcaster.broadcast(accepted.message());
+        }
+        Message message = accepted.message();
+        // Whoever writes in a room has read it up to their own message
+        readReceiptService.markRead(userId, roomId, message.getSeq());
+        return new MessageWriter.Accepted(message, accepted.persisted().whenComplete((stored, e) -> {
+            if (e != null) {
+                recentMessageCache.remove(message);
+            }
+        }));
     }
-    public Map<String, String> getParticipants(String token, String roomId) throws ChatRoomException, InvalidUserException {
-        String userId = jwtService.getId(token);
-        ChatRoom chatRoom = chatRoomRepository.findById(roomId).orElseThrow(() -> new ChatRoomException("Could not find this chat room"));
+    public void markRead(TokenClaims claims, String roomId, long seq) throws ChatRoomException {
+        checkParticipant(claims, roomId);
+        readReceiptService.markRead(claims.id(), roomId, seq);
+    }
+    /**
+     * Throws unless the user is currently a participant of the room, for socket events that have no other
+     * reason to load the room.
+     */
+    public void checkParticipant(TokenClaims claims, String roomId) throws ChatRoomException {
+        RoomMembership room = roomMembershipCache.get(roomId).orElseThrow(() -> new ChatRoomException("Invalid chat room"));
+        if (!room.isParticipant(claims.id())){
+            throw new ChatRoomException("User with id " + claims.id() + " is not a participant of this chat room");
+        }
+    }
+    public Map<String, String> getParticipants(TokenClaims claims, String roomId) throws ChatRoomException, InvalidUserException {
+        String userId = claims.id();
+        RoomMembership room = roomMembershipCache.get(roomId).orElseThrow(() -> new ChatRoomException("Could not find this chat room"));
 
-        if (!chatRoom.getParticipantIds().contains(userId)){
+        if (!room.isParticipant(userId)){
             throw new ChatRoomException("User with id " + userId + " is not a participant of this chat room");
         }
 
-        Set<String> participantIds = chatRoom.getParticipantIds();
-        System.out.println(participantIds);
+        Set<String> participantIds = room.participantIds();
+        Map<String, UserProfile> profiles = userProfileCache.getProfiles(participantIds);
         Map<String, String> participantEmails = new HashMap<>();
 
         for (String participant : participantIds){
-            User user = getParticipant(participant);
-            if (isGroupCreator(chatRoom, user.getId())){
-                participantEmails.put(user.getEmail(), "GROUP CREATOR");
-            } else if (isGroupAdmin(chatRoom, user.getId())) {
-                participantEmails.put(user.getEmail(), "GROUP ADMIN");
+            UserProfile user = profiles.get(participant);
+            if (user == null){
+                throw new InvalidUserException("Could not find user with this id");
+            }
+            if (room.isGroupCreator(user.id())){
+                participantEmails.put(user.email(), "GROUP CREATOR");
+            } else if (room.isGroupAdmin(user.id())) {
+                participantEmails.put(user.email(), "GROUP ADMIN");
             } else {
-                participantEmails.put(user.getEmail(), "PARTICIPANT");
+                participantEmails.put(user.email(), "PARTICIPANT");
             }
         }
         return participantEmails;
     }
-    public Map<String, String> promoteToGroupAdmin(String token, String roomId, String userEmail) throws InvalidUserException, ChatRoomException {
-        String groupAdminId = jwtService.getId(token);
-        User groupAdmin = userRepository.findById(groupAdminId).orElseThrow(() -> new InvalidUserException("User with id " + groupAdminId + " is not admin of this chat room"));
-        User user = userRepository.findByEmail(userEmail).orElseThrow(() -> new InvalidUserException("User " + userEmail + " is not a part of this chat room"));
-        ChatRoom chatRoom = chatRoomRepository.findById(roomId).orElseThrow(() -> new ChatRoomException("Invalid chat room"));
-
-        if (isGroupAdmin(chatRoom, groupAdmin.getId())){
-            promoteParticipantToGroupAdmin(chatRoom, user);
-            return getParticipants(token, roomId);
-        } else throw new ChatRoomException("Only group admins can grant admin role to group participants");
-
+    public Map<String, String> promoteToGroupAdmin(TokenClaims claims, String roomId, String userEmail) throws InvalidUserException, ChatRoomException {
+        String groupAdminId = claims.id();
+        UserProfile user = userRepository.findProfileByEmail(userEmail).orElseThrow(() -> new InvalidUserException("User " + userEmail + " is not a part of this chat room"));
+
+        if (!chatRoomRepository.addGroupAdmin(roomId, groupAdminId, user.id())){
+            RoomMembership room = loadMembership(roomId);
+            if (!room.isGroupAdmin(groupAdminId)){
+                throw new ChatRoomException("Only group admins can grant admin role to group participants");
+            }
+            throw new InvalidUserException("User " + userEmail + " is not a part of this chat room");
+        }
+        roomMembershipCache.invalidate(roomId);
+        return getParticipants(claims, roomId);
     }
-    public Map<String, String> demoteGroupAdmin(String token, String roomId, String adminEmail) throws ChatRoomException, InvalidUserException {
-        String creatorId = jwtService.getId(token);
-        ChatRoom chatRoom = chatRoomRepository.findById(roomId).orElseThrow(() -> new ChatRoomException("Invalid chat room"));
-        User groupAdmin = userRepository.findByEmail(adminEmail).orElseThrow(() -> new InvalidUserException("User does not exist"));
-
-        if (!isGroupCreator(chatRoom, creatorId)){
-            throw new ChatRoomException("Only group creators can demote admins");
+    public Map<String, String> demoteGroupAdmin(TokenClaims claims, String roomId, String adminEmail) throws ChatRoomException, InvalidUserException {
+        String creatorId = claims.id();
+        UserProfile groupAdmin = userRepository.findProfileByEmail(adminEmail).orElseThrow(() -> new InvalidUserException("User does not exist"));
+
+        if (!chatRoomRepository.removeGroupAdmin(roomId, creatorId, groupAdmin.id())){
+            RoomMembership room = loadMembership(roomId);
+            if (!room.isGroupCreator(creatorId)){
+                throw new ChatRoomException("Only group creators can demote admins");
+            }
+            throw new ChatRoomException("User is not a group admin!");
         }
+        roomMembershipCache.invalidate(roomId);
 
-        demoteGroupAdmin(chatRoom, groupAdmin.getId());
-
-        return getParticipants(token, roomId);
+        return getParticipants(claims, roomId);
     }
-    public Map<String, Object> kickUserFromGroup(String token, String roomId, String userEmail) throws ChatRoomException, InvalidUserException {
-        String groupAdminId = jwtService.getId(token);
-        User user = userRepository.findByEmail(userEmail).orElseThrow(() -> new InvalidUserException("User does not exist"));
-        ChatRoom chatRoom = chatRoomRepository.findById(roomId).orElseThrow(() -> new ChatRoomException("Invalid chat room"));
-
-        if (!isGroupAdmin(chatRoom, groupAdminId)){
-            throw new ChatRoomException("Only group admins can kick participants from group");
-        }
+    public Map<String, Object> kickUserFromGroup(TokenClaims claims, String roomId, String userEmail) throws ChatRoomException, InvalidUserException {
+        String groupAdminId = claims.id();
+        UserProfile user = userRepository.findProfileByEmail(userEmail).orElseThrow(() -> new InvalidUserException("User does not exist"));
 
-        removeUserFromGroup(chatRoom, groupAdminId, user.getId());
-        Message message = sendMessage(roomId, userEmail + " has been kicked by " + jwtService.getEmail(token), token);
-        Map<String, String> participantsMap = getParticipants(token, roomId);
+        removeUserFromGroup(roomId, groupAdminId, user.id());
+        Message message = sendMessage(roomId, userEmail + " has been kicked by " + claims.email(), claims).message();
+        Map<String, String> participantsMap = getParticipants(claims, roomId);
         Map<String, Object> combinedMap = new HashMap<>(participantsMap);
         combinedMap.put("message", message);
         return combinedMap;
     }
 
-    public Map<String, String> getGroupRole(String token, String roomId) throws ChatRoomException {
-        String userId = jwtService.getId(token);
-        String userEmail = jwtService.getEmail(token);
+    public Map<String, String> getGroupRole(TokenClaims claims, String roomId) throws ChatRoomException {
+        String userId = claims.id();
+        String userEmail = claims.email();
 
-        ChatRoom chatRoom = chatRoomRepository.findById(roomId).orElseThrow(() -> new ChatRoomException("Invalid chat room"));
+        RoomMembership room = roomMembershipCache.get(roomId).orElseThrow(() -> new ChatRoomException("Invalid chat room"));
 
         Map<String, String> response = new HashMap<>();
-        if (!chatRoom.getParticipantIds().contains(userId)){
+        if (!room.isParticipant(userId)){
             throw new ChatRoomException("User with id " + userId + " is not a participant of this chat room");
         }
 
-        if (isGroupCreator(chatRoom, userId)){
+        if (room.isGroupCreator(userId)){
             response.put(userEmail, "GROUP CREATOR");
             return response;
-        } else if (isGroupAdmin(chatRoom, userId)){
+        } else if (room.isGroupAdmin(userId)){
             response.put(userEmail, "GROUP ADMIN");
             return response;
         } else {
@@ -248,77 +312,32 @@ public class ChatService {
         long elapsedMinutes = TimeUnit.MILLISECONDS.toMinutes(elapsedTime);
         return elapsedMinutes <= 15;
     }
-    private User getParticipant(String participantId) throws InvalidUserException {
-        return userRepository.findById(participantId).orElseThrow(() -> new InvalidUserException("Could not find user with this id"));
+    private RoomMembership loadMembership(String roomId) throws ChatRoomException {
+        // Read past the cache, this explains why a conditional update just matched nothing
+        return chatRoomRepository.findById(roomId)
+                .map(RoomMembership::of)
+                .orElseThrow(() -> new ChatRoomException("Invalid chat room"));
     }
-    private void promoteParticipantToGroupAdmin(ChatRoom chatRoom, User user){
-        Set<String> chatRoomAdmins = chatRoom.getGroupAdmins();
-        chatRoomAdmins.add(user.getId());
-        chatRoom.setGroupAdmins(chatRoomAdmins);
-        chatRoomRepository.save(chatRoom);
+    private Object lock(String roomId) {
+        return locks[Math.floorMod(roomId.hashCode(), LOCK_STRIPES)];
     }
-    private void demoteGroupAdmin(ChatRoom chatRoom, String adminId) throws ChatRoomException {
-        if (!isGroupAdmin(chatRoom, adminId)){
-            throw new ChatRoomException("User is not a group admin!");
+    private void removeUserFromGroup(String roomId, String groupAdminId, String userId) throws ChatRoomException {
+        if (chatRoomRepository.kickParticipant(roomId, groupAdminId, userId)) {
+            roomMembershipCache.invalidate(roomId);
+            userRepository.removeChatRoom(userId, roomId);
+            return;
         }
-        Set<String> groupAdmins = chatRoom.getGroupAdmins();
-        groupAdmins.remove(adminId);
-        chatRoom.setGroupAdmins(groupAdmins);
-        chatRoomRepository.save(chatRoom);
-    }
-    private boolean isGroupAdmin(ChatRoom chatRoom, String userId){
-        return chatRoom.getGroupAdmins().contains(userId);
-    }
-    private boolean isGroupCreator(ChatRoom chatRoom, String userId){
-        return chatRoom.getCreatedBy().equals(userId);
-    }
-    private void removeUserFromGroup(ChatRoom chatRoom, String groupAdminId, String userId) throws ChatRoomException, InvalidUserException {
-        boolean isAdmin = isGroupAdmin(chatRoom, groupAdminId);
-        boolean isUserAdmin = isGroupAdmin(chatRoom, userId);
-        boolean isCreator = isGroupCreator(chatRoom, groupAdminId);
 
-        if (isAdmin && isUserAdmin && !isCreator) {
-            throw new ChatRoomException("Only room creator can kick admins");
-        }
+        RoomMembership room = loadMembership(roomId);
+        boolean isCreator = room.isGroupCreator(groupAdminId);
+        boolean isUserAdmin = room.isGroupAdmin(userId);
 
-        if (isCreator && isUserAdmin || isAdmin) {
-            User user = userRepository.findById(userId).orElseThrow(() -> new InvalidUserException("Could not find user with this id"));
-            Set<String> participants = chatRoom.getParticipantIds();
-
-            if (!participants.contains(userId)){
-                throw new ChatRoomException("User is not a part of this chat room!");
-            }
-
-            participants.remove(userId);
-            chatRoom.setParticipantIds(participants);
-
-            Set<String> userChatRooms = user.getChatRooms();
-            if (!userChatRooms.contains(chatRoom.getId())){
-                throw new ChatRoomException("User is not a part of this chat room!");
-            }
-
-            userChatRooms.remove(chatRoom.getId());
-            user.setChatRooms(userChatRooms);
-
-            chatRoomRepository.save(chatRoom);
-            userRepository.save(user);
-        } else {
-            throw new ChatRoomException("Only room creator or an admin can kick users");
+        if (!room.isGroupAdmin(groupAdminId) && !(isCreator && isUserAdmin)) {
+            throw new ChatRoomException("Only group admins can kick participants from group");
         }
-    }
-    private void removeParticipantsFromChatRoom(ChatRoom chatRoom, String userId){
-        Set<String> participants = chatRoom.getParticipantIds();
-        Set<String> admins = chatRoom.getGroupAdmins();
-
-        admins.remove(userId);
-        participants.remove(userId);
-        chatRoom.setParticipantIds(participants);
-        chatRoomRepository.save(chatRoom);
-    }
-    private void removeChatRoomFromUser(User user, String roomId){
-        Set<String> chatRooms = user.getChatRooms();
-        chatRooms.remove(roomId);
-        user.setChatRooms(chatRooms);
-        userRepository.save(user);
+        if (isUserAdmin && !isCreator) {
+            throw new ChatRoomException("Only room creator can kick admins");
+        }
+        throw new ChatRoomException("User is not a part of this chat room!");
     }
 }
@@ -0,0 +1,231 @@
+package com.auth.app.service;
+
+import com.auth.app.model.OutboxEmail;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.MailSender;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent outbox for transactional email. Callers only insert the email into Mongo, and a pool of background
+ * workers claims pending emails in batches and sends each batch over a single SMTP connection. Failed emails are
+ * retried with exponential backoff and kept as FAILED once they run out of attempts.
+ * <p>
+ * A claimed email is leased to its worker until {@code nextAttemptAt}, so emails held by a node that dies are sent
+ * by another one when the lease runs out.
+ */
+@Log4j2
+@Service
+public class EmailOutbox {
+
+    private final MongoTemplate mongoTemplate;
+    private final MailSender mailSender;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long leaseMillis;
+    private final long retryBaseMillis;
+    private final long retryMaxMillis;
+    private final long pollIntervalMillis;
+    private final List<Thread> workers = new ArrayList<>();
+    private final Semaphore wakeups = new Semaphore(0);
+    private final Counter sent;
+    private final Counter retried;
+    private final Counter failed;
+    private final Timer batches;
+    private volatile boolean running = true;
+
+    public EmailOutbox(MongoTemplate mongoTemplate, MailSender mailSender, MeterRegistry meterRegistry,
+                       @Value("${chat.mail.workers:2}") int workerCount,
+                       @Value("${chat.mail.batch-size:50}") int batchSize,
+                       @Value("${chat.mail.max-attempts:8}") int maxAttempts,
+                       @Value("${chat.mail.lease-ms:120000}") long leaseMillis,
+                       @Value("${chat.mail.retry-base-ms:5000}") long retryBaseMillis,
+                       @Value("${chat.mail.retry-max-ms:900000}") long retryMaxMillis,
+                       @Value("${chat.mail.poll-interval-ms:1000}") long pollIntervalMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.mailSender = mailSender;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.leaseMillis = leaseMillis;
+        this.retryBaseMillis = retryBaseMillis;
+        this.retryMaxMillis = retryMaxMillis;
+        this.pollIntervalMillis = pollIntervalMillis;
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::run, "email-outbox-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+        this.sent = Counter.builder("mail.outbox.sent").description("Emails delivered to the SMTP server").register(meterRegistry);
+        this.retried = Counter.builder("mail.outbox.retried").description("Failed attempts that will be retried").register(meterRegistry);
+        this.failed = Counter.builder("mail.outbox.failed").description("Emails given up on after their last attempt").register(meterRegistry);
+        this.batches = Timer.builder("mail.outbox.batch").description("Time to send one batch").register(meterRegistry);
+        Gauge.builder("mail.outbox.pending", this, outbox -> outbox.count(OutboxEmail.Status.PENDING))
+                .description("Emails waiting to be sent").register(meterRegistry);
+        Gauge.builder("mail.outbox.dead", this, outbox -> outbox.count(OutboxEmail.Status.FAILED))
+                .description("Emails kept after running out of attempts").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        workers.forEach(Thread::start);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        wakeups.release(workers.size());
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    public void enqueue(SimpleMailMessage message) {
+        for (String to : message.getTo()) {
+            mongoTemplate.insert(OutboxEmail.builder()
+                    .from(message.getFrom())
+                    .to(to)
+                    .subject(message.getSubject())
+                    .text(message.getText())
+                    .status(OutboxEmail.Status.PENDING)
+                    .nextAttemptAt(new Date())
+                    .createdAt(new Date())
+                    .build());
+        }
+        wakeups.release();
+    }
+
+    /**
+     * Claims and sends one batch of due emails.
+     *
+     * @return the number of emails claimed, zero when nothing is due
+     */
+    public int drain() {
+        List<OutboxEmail> batch = claim();
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        SimpleMailMessage[] messages = batch.stream().map(EmailOutbox::toMessage).toArray(SimpleMailMessage[]::new);
+        Map<Object, Exception> failures = new IdentityHashMap<>();
+        long started = System.nanoTime();
+        try {
+            mailSender.send(messages);
+        } catch (MailSendException e) {
+            failures.putAll(e.getFailedMessages());
+            if (failures.isEmpty()) {
+                for (SimpleMailMessage message : messages) {
+                    failures.put(message, e);
+                }
+            }
+        } catch (MailException e) {
+            for (SimpleMailMessage message : messages) {
+                failures.put(message, e);
+            }
+        }
+        batches.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+
+        List<String> delivered = new ArrayList<>(batch.size());
+        for (int i = 0; i < messages.length; i++) {
+            Exception failure = failures.get(messages[i]);
+            if (failure == null) {
+                delivered.add(batch.get(i).getId());
+            } else {
+                reschedule(batch.get(i), failure);
+            }
+        }
+        if (!delivered.isEmpty()) {
+            mongoTemplate.remove(new Query(Criteria.where("id").in(delivered)), OutboxEmail.class);
+            sent.increment(delivered.size());
+        }
+        return batch.size();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                if (drain() < batchSize) {
+                    wakeups.tryAcquire(pollIntervalMillis, TimeUnit.MILLISECONDS);
+                    wakeups.drainPermits();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Email outbox worker failed, retrying", e);
+                try {
+                    Thread.sleep(pollIntervalMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private List<OutboxEmail> claim() {
+        Date now = new Date();
+        Criteria due = Criteria.where("status").is(OutboxEmail.Status.PENDING).and("nextAttemptAt").lte(now);
+        Query candidates = new Query(due).with(Sort.by(Sort.Direction.ASC, "nextAttemptAt")).limit(batchSize);
+        candidates.fields().include("id");
+        List<String> ids = mongoTemplate.find(candidates, OutboxEmail.class).stream().map(OutboxEmail::getId).toList();
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        // Another worker may claim some of the same emails in between, the due condition makes each claim exclusive
+        String claim = UUID.randomUUID().toString();
+        mongoTemplate.updateMulti(new Query(Criteria.where("id").in(ids)
+                        .and("status").is(OutboxEmail.Status.PENDING).and("nextAttemptAt").lte(now)),
+                new Update().set("claim", claim).set("nextAttemptAt", new Date(now.getTime() + leaseMillis)).inc("attempts", 1),
+                OutboxEmail.class);
+        return mongoTemplate.find(new Query(Criteria.where("claim").is(claim)), OutboxEmail.class);
+    }
+
+    private void reschedule(OutboxEmail email, Exception failure) {
+        Update update = new Update().set("lastError", String.valueOf(failure.getMessage())).unset("claim");
+        if (email.getAttempts() >= maxAttempts) {
+            update.set("status", OutboxEmail.Status.FAILED);
+            failed.increment();
+            log.warn("Giving up on email {} to {} after {} attempts", email.getId(), email.getTo(), email.getAttempts(), failure);
+        } else {
+            long backoff = Math.min(retryMaxMillis, retryBaseMillis << Math.min(email.getAttempts() - 1, 20));
+            update.set("nextAttemptAt", new Date(System.currentTimeMillis() + backoff));
+            retried.increment();
+        }
+        mongoTemplate.updateFirst(new Query(Criteria.where("id").is(email.getId())), update, OutboxEmail.class);
+    }
+
+    private double count(OutboxEmail.Status status) {
+        return mongoTemplate.count(new Query(Criteria.where("status").is(status)), OutboxEmail.class);
+    }
+
+    private static SimpleMailMessage toMessage(OutboxEmail email) {
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setFrom(email.getFrom());
+        message.setTo(email.getTo());
+        message.setSubject(email.getSubject());
+        message.setText(email.getText());
+        return message;
+    }
+}
@@ -2,7 +2,6 @@ package com.auth.app.service;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
 
 
@@ -10,7 +9,8 @@ import org.springframework.stereotype.Service;
 @RequiredArgsConstructor
 public class EmailSenderService {
 
-    private final JavaMailSender mailSender;
+    // Emails are only queued here, so callers never wait on the mail server
+    private final EmailOutbox emailOutbox;
 
     
     public void sendRegistrationEmail(String toEmail){
@@ -25,7 +25,7 @@ public class EmailSenderService {
                 "If you have any questions or need assistance with your account, please do not hesitate to contact us at [support email address].\n" +
                 "\n" +
                 "Best regards,");
-        mailSender.send(message);
+        emailOutbox.enqueue(message);
     }
 
     
@@ -35,7 +35,7 @@ public class EmailSenderService {
         message.setTo(to);
         message.setSubject("Password Recovery");
         message.setText("Please click on following link " + buildResetLink(resetLink));
-        mailSender.send(message);
+        emailOutbox.enqueue(message);
     }
     private String buildResetLink(String resetToken) {
         String resetUrl = "http://localhost:50981/#/reset-password"; // Specify the reset password URL
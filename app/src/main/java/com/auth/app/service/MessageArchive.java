@@ -0,0 +1,285 @@
+package com.auth.app.service;
+
+import com.auth.app.model.ArchiveSegment;
+import com.auth.app.model.Message;
+import com.auth.app.repository.ArchiveSegmentRepository;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.Binary;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Cold storage for room history. Old messages are packed, in order, into deflate compressed segments of a few
+ * thousand messages each. A read looks up the segments covering the requested range by their id and seq bounds
+ * and only decompresses those, keeping the most recently decoded segments in memory for paging.
+ */
+@Service
+public class MessageArchive {
+
+    private static final DocumentCodec CODEC = new DocumentCodec();
+    // Segments are returned in batches of this many while scanning for a page
+    private static final int SEGMENT_SCAN = 4;
+
+    private final ArchiveSegmentRepository archiveSegmentRepository;
+    private final MongoConverter converter;
+    private final int maxSegmentBytes;
+    private final int compressionLevel;
+    private final Map<String, List<Message>> decoded;
+
+    public MessageArchive(ArchiveSegmentRepository archiveSegmentRepository, MongoConverter converter,
+                          @Value("${chat.retention.max-segment-bytes:8388608}") int maxSegmentBytes,
+                          @Value("${chat.retention.compression-level:6}") int compressionLevel,
+                          @Value("${chat.retention.segment-cache-size:32}") int segmentCacheSize) {
+        this.archiveSegmentRepository = archiveSegmentRepository;
+        this.converter = converter;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.compressionLevel = compressionLevel;
+        this.decoded = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Message>> eldest) {
+                return size() > segmentCacheSize;
+            }
+        });
+    }
+
+    /**
+     * Packs consecutive messages of one room, oldest first, into one or more segments. Writing the same messages
+     * again replaces the segments written the first time.
+     */
+    public void write(String roomId, List<Message> messages) {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        int start = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            raw.writeBytes(encode(messages.get(i)));
+            if (raw.size() >= maxSegmentBytes || i == messages.size() - 1) {
+                save(roomId, messages.subList(start, i + 1), raw.toByteArray());
+                raw.reset();
+                start = i + 1;
+            }
+        }
+    }
+
+    public boolean contains(String roomId) {
+        return archiveSegmentRepository.existsByRoomId(roomId);
+    }
+
+    public Optional<Message> find(String roomId, String messageId) {
+        return archiveSegmentRepository.findFirstByRoomIdAndFirstMessageIdLessThanEqualOrderByFirstMessageIdDesc(roomId, messageId).stream()
+                .flatMap(segment -> messages(segment).stream())
+                .filter(message -> message.getMessageId().equals(messageId))
+                .findFirst();
+    }
+
+    /**
+     * The newest {@code limit} archived messages older than {@code messageId}, or the newest overall when it is
+     * null, in chronological order.
+     */
+    public List<Message> before(String roomId, String messageId, int limit) {
+        List<Message> newestFirst = new ArrayList<>(limit);
+        String bound = messageId;
+        while (newestFirst.size() < limit) {
+            Sort newest = Sort.by(Sort.Direction.DESC, "firstMessageId");
+            List<ArchiveSegment> segments = bound == null
+                    ? archiveSegmentRepository.findByRoomId(roomId, PageRequest.of(0, SEGMENT_SCAN, newest))
+                    : archiveSegmentRepository.findByRoomIdAndFirstMessageIdLessThan(roomId, bound, PageRequest.of(0, SEGMENT_SCAN, newest));
+            for (ArchiveSegment segment : segments) {
+                if (newestFirst.size() == limit) {
+                    break;
+                }
+                List<Message> contents = messages(segment);
+                for (int i = contents.size() - 1; i >= 0 && newestFirst.size() < limit; i--) {
+                    Message message = contents.get(i);
+                    if (messageId == null || message.getMessageId().compareTo(messageId) < 0) {
+                        newestFirst.add(message);
+                    }
+                }
+                bound = segment.getFirstMessageId();
+            }
+            if (segments.size() < SEGMENT_SCAN) {
+                break;
+            }
+        }
+        Collections.reverse(newestFirst);
+        return newestFirst;
+    }
+
+    /**
+     * The oldest {@code limit} archived messages newer than {@code messageId}, in chronological order.
+     */
+    public List<Message> after(String roomId, String messageId, int limit) {
+        List<Message> page = new ArrayList<>(limit);
+        String bound = messageId;
+        while (page.size() < limit) {
+            List<ArchiveSegment> segments = archiveSegmentRepository.findByRoomIdAndLastMessageIdGreaterThan(roomId, bound,
+                    PageRequest.of(0, SEGMENT_SCAN, Sort.by(Sort.Direction.ASC, "lastMessageId")));
+            for (ArchiveSegment segment : segments) {
+                if (page.size() == limit) {
+                    break;
+                }
+                messages(segment).stream()
+                        .filter(message -> message.getMessageId().compareTo(messageId) > 0)
+                        .limit(limit - page.size())
+                        .forEach(page::add);
+                bound = segment.getLastMessageId();
+            }
+            if (segments.size() < SEGMENT_SCAN) {
+                break;
+            }
+        }
+        return page;
+    }
+
+    /**
+     * The oldest {@code limit} archived messages with a sequence number above {@code seq}, in order.
+     */
+    public List<Message> since(String roomId, long seq, int limit) {
+        List<Message> page = new ArrayList<>();
+        long bound = seq;
+        while (page.size() < limit) {
+            List<ArchiveSegment> segments = archiveSegmentRepository.findByRoomIdAndLastSeqGreaterThan(roomId, bound,
+                    PageRequest.of(0, SEGMENT_SCAN, Sort.by(Sort.Direction.ASC, "lastSeq")));
+            for (ArchiveSegment segment : segments) {
+                if (page.size() == limit) {
+                    break;
+                }
+                messages(segment).stream()
+                        .filter(message -> message.getSeq() > seq)
+                        .limit(limit - page.size())
+                        .forEach(page::add);
+                bound = segment.getLastSeq();
+            }
+            if (segments.size() < SEGMENT_SCAN) {
+                break;
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Hands every archived message of a room to {@code consumer} one segment at a time, oldest first, so the whole
+     * archive is never held in memory at once.
+     */
+    public void forEach(String roomId, Consumer<List<Message>> consumer) {
+        try (Stream<ArchiveSegment> segments = archiveSegmentRepository.findByRoomIdOrderByFirstMessageIdAsc(roomId)) {
+            segments.forEach(segment -> consumer.accept(decode(segment)));
+        }
+    }
+
+    private void save(String roomId, List<Message> messages, byte[] raw) {
+        Message first = messages.get(0);
+        Message last = messages.get(messages.size() - 1);
+        archiveSegmentRepository.save(ArchiveSegment.builder()
+                .id(roomId + ":" + first.getMessageId())
+                .roomId(roomId)
+                .firstMessageId(first.getMessageId())
+                .lastMessageId(last.getMessageId())
+                .firstSeq(first.getSeq())
+                .lastSeq(last.getSeq())
+                .count(messages.size())
+                .rawBytes(raw.length)
+                .createdAt(new Date())
+                .data(new Binary(compress(raw)))
+                .build());
+    }
+
+    private List<Message> messages(ArchiveSegment segment) {
+        List<Message> cached = decoded.get(segment.getId());
+        if (cached != null) {
+            return cached;
+        }
+        List<Message> messages = decode(segment);
+        decoded.put(segment.getId(), messages);
+        return messages;
+    }
+
+    private byte[] encode(Message message) {
+        Document document = new Document();
+        converter.write(message, document);
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        CODEC.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+        return buffer.toByteArray();
+    }
+
+    private List<Message> decode(ArchiveSegment segment) {
+        ByteBuffer raw = ByteBuffer.wrap(decompress(segment.getData().getData(), segment.getRawBytes()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        List<Message> messages = new ArrayList<>(segment.getCount());
+        while (raw.hasRemaining()) {
+            // Every BSON document starts with its own length
+            ByteBuffer next = raw.slice().order(ByteOrder.LITTLE_ENDIAN);
+            next.limit(next.getInt(0));
+            raw.position(raw.position() + next.limit());
+            try (BsonBinaryReader reader = new BsonBinaryReader(next)) {
+                messages.add(converter.read(Message.class, CODEC.decode(reader, DecoderContext.builder().build())));
+            }
+        }
+        return Collections.unmodifiableList(messages);
+    }
+
+    private byte[] compress(byte[] raw) {
+        Deflater deflater = new Deflater(compressionLevel);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+            byte[] chunk = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] compressed, int rawBytes) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawBytes];
+            int read = 0;
+            while (read < rawBytes && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, read, rawBytes - read);
+                if (inflated == 0 && inflater.needsInput()) {
+                    break;
+                }
+                read += inflated;
+            }
+            if (read != rawBytes) {
+                throw new UncheckedIOException(new IOException("Truncated archive segment"));
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new UncheckedIOException(new IOException("Corrupt archive segment", e));
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.auth.app.service;
+
+import com.auth.app.cluster.ClusterBus;
+import com.auth.app.model.ArchiveSegment;
+import com.auth.app.model.Message;
+import com.auth.app.repository.ArchiveSegmentRepository;
+import com.auth.app.repository.ChatRoomRepository;
+import com.auth.app.repository.MessageRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out per-room message sequence numbers. Standalone, counters live in memory and are seeded from the
+ * highest stored sequence the first time a room is used after startup, so numbering continues without gaps
+ * across restarts, falling back to the archive when every message of a room has been archived. In clustered
+ * mode any node may write to a room, so every number comes from an atomic counter on the room document instead.
+ */
+@Service
+@RequiredArgsConstructor
+public class MessageSequencer {
+
+    private final MessageRepository messageRepository;
+    private final ChatRoomRepository chatRoomRepository;
+    private final ArchiveSegmentRepository archiveSegmentRepository;
+    private final ClusterBus clusterBus;
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    public long next(String roomId) {
+        if (clusterBus.isClustered()) {
+            return chatRoomRepository.nextSeq(roomId);
+        }
+        return counters.computeIfAbsent(roomId, this::seed).incrementAndGet();
+    }
+
+    private AtomicLong seed(String roomId) {
+        long last = messageRepository.findFirstByRoomIdOrderBySeqDesc(roomId)
+                .map(Message::getSeq)
+                .orElseGet(() -> archiveSegmentRepository.findFirstByRoomIdOrderByLastSeqDesc(roomId)
+                        .map(ArchiveSegment::getLastSeq)
+                        .orElse(0L));
+        return new AtomicLong(last);
+    }
+}
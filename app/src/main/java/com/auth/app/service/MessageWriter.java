@@ -0,0 +1,223 @@
+package com.auth.app.service;
+
+import com.auth.app.exceptions.MessageRejectedException;
+import com.auth.app.model.Message;
+import com.auth.app.repository.ChatRoomRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Write-behind buffer for chat messages. Accepted messages are queued and flushed to Mongo by a single
+ * background thread as unordered bulk inserts, once {@code batchSize} messages are waiting or the flush
+ * interval elapses, so senders never wait on a Mongo round trip per message. Queueing never blocks: when the
+ * buffer is full the message is rejected before it is created.
+ */
+@Log4j2
+@Service
+public class MessageWriter {
+
+    public enum Durability {
+        /** The returned future completes once the message is stored in Mongo. */
+        PERSISTED,
+        /** The returned future completes as soon as the message is buffered. */
+        ENQUEUED
+    }
+
+    /**
+     * A message the buffer has taken, with a future that completes according to the configured durability.
+     */
+    public record Accepted(Message message, CompletableFuture<Message> persisted) {
+    }
+
+    private record PendingWrite(Message message, CompletableFuture<Message> persisted) {
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final ChatRoomRepository chatRoomRepository;
+    private final BlockingQueue<PendingWrite> buffer = new LinkedBlockingQueue<>();
+    // Permits for messages queued or being flushed, taken before a message is created
+    private final Semaphore capacity;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final Durability durability;
+    private final Thread flusher;
+    private final Map<String, NavigableMap<Long, Message>> unpersisted = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+
+    public MessageWriter(MongoTemplate mongoTemplate, ChatRoomRepository chatRoomRepository,
+                         @Value("${chat.messages.buffer-capacity:10000}") int bufferCapacity,
+                         @Value("${chat.messages.batch-size:500}") int batchSize,
+                         @Value("${chat.messages.flush-interval-ms:20}") long flushIntervalMillis,
+                         @Value("${chat.messages.durability:PERSISTED}") Durability durability) {
+        this.mongoTemplate = mongoTemplate;
+        this.chatRoomRepository = chatRoomRepository;
+        this.capacity = new Semaphore(bufferCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.durability = durability;
+        this.flusher = new Thread(this::run, "message-writer");
+        this.flusher.setDaemon(true);
+    }
+
+    @PostConstruct
+    public void start() {
+        flusher.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        flusher.interrupt();
+        flusher.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Queues a message for persistence without blocking. Room in the buffer is reserved before {@code message} is
+     * called, so a message is only created, and given its sequence number, once it is certain to be accepted.
+     * The message must carry its id so it can be broadcast before it is written.
+     *
+     * @throws MessageRejectedException when the buffer is full
+     */
+    public Accepted write(Supplier<Message> message) {
+        if (!capacity.tryAcquire()) {
+            throw new MessageRejectedException("Too many messages are waiting to be saved, try again later");
+        }
+        PendingWrite write;
+        try {
+            write = new PendingWrite(message.get(), new CompletableFuture<>());
+        } catch (RuntimeException e) {
+            capacity.release();
+            throw e;
+        }
+        track(write.message());
+        // The queue is unbounded, the permit is what limits it
+        buffer.add(write);
+        return new Accepted(write.message(),
+                durability == Durability.ENQUEUED ? CompletableFuture.completedFuture(write.message()) : write.persisted());
+    }
+
+    /**
+     * Messages of a room with a sequence number above {@code afterSeq} that are accepted but not yet flushed.
+     * A message stays visible here until its write has finished, so reading this before querying Mongo
+     * never misses a message in between.
+     */
+    public List<Message> unpersisted(String roomId, long afterSeq) {
+        NavigableMap<Long, Message> pending = unpersisted.get(roomId);
+        return pending == null ? List.of() : List.copyOf(pending.tailMap(afterSeq, false).values());
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (running || !buffer.isEmpty()) {
+            try {
+                PendingWrite first = buffer.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < batchSize) {
+                    buffer.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingWrite next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // stop() interrupts to cut the wait short; the loop drains what is left before exiting
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                capacity.release(batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        List<Message> messages = batch.stream().map(PendingWrite::message).toList();
+        Set<Integer> failed = new HashSet<>();
+        RuntimeException failure = null;
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Message.class)
+                    .insert(messages)
+                    .execute();
+        } catch (BulkOperationException e) {
+            e.getErrors().forEach(error -> failed.add(error.getIndex()));
+            failure = e;
+            log.error("Failed to persist " + failed.size() + " of " + batch.size() + " messages", e);
+        } catch (RuntimeException e) {
+            for (int i = 0; i < batch.size(); i++) {
+                failed.add(i);
+            }
+            failure = e;
+            log.error("Failed to persist batch of " + batch.size() + " messages", e);
+        }
+
+        // One head update per room and batch, instead of a room write per message
+        Map<String, Message> latest = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (!failed.contains(i)) {
+                latest.merge(messages.get(i).getRoomId(), messages.get(i),
+                        (current, candidate) -> candidate.getSeq() > current.getSeq() ? candidate : current);
+            }
+        }
+        try {
+            chatRoomRepository.updateHeads(latest.values());
+        } catch (RuntimeException e) {
+            log.error("Failed to update room heads", e);
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            PendingWrite write = batch.get(i);
+            untrack(write.message());
+            if (failed.contains(i)) {
+                write.persisted().completeExceptionally(failure);
+            } else {
+                write.persisted().complete(write.message());
+            }
+        }
+    }
+
+    private void track(Message message) {
+        unpersisted.compute(message.getRoomId(), (roomId, pending) -> {
+            NavigableMap<Long, Message> messages = pending != null ? pending : new ConcurrentSkipListMap<>();
+            messages.put(message.getSeq(), message);
+            return messages;
+        });
+    }
+
+    private void untrack(Message message) {
+        unpersisted.computeIfPresent(message.getRoomId(), (roomId, pending) -> {
+            pending.remove(message.getSeq());
+            return pending.isEmpty() ? null : pending;
+        });
+    }
+}
@@ -0,0 +1,145 @@
+package com.auth.app.service;
+
+import com.auth.app.exceptions.PasswordHashingBusyException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BCrypt password encoder that runs every hash on a small dedicated pool, so a burst of logins can only use that
+ * many cores and never ties up the CPU the rest of the API needs. Requests beyond the pool and its bounded queue
+ * are turned away with {@link PasswordHashingBusyException} instead of piling up on request threads.
+ * <p>
+ * Stored hashes with a lower cost than the configured one report {@link #upgradeEncoding}, which makes
+ * a successful login rehash the password.
+ */
+@Log4j2
+public class PasswordHasher implements PasswordEncoder {
+
+    private static final int MIN_STRENGTH = 10;
+    private static final int MAX_STRENGTH = 16;
+
+    private final BCryptPasswordEncoder delegate;
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+    private final Timer hashes;
+    private final Timer waits;
+    private final Counter rejected;
+
+    public PasswordHasher(int strength, int threads, int queueCapacity, long timeoutMillis, MeterRegistry meterRegistry) {
+        this.delegate = new BCryptPasswordEncoder(strength);
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                task -> {
+                    Thread thread = new Thread(task, "password-hasher-" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.timeoutMillis = timeoutMillis;
+        this.hashes = Timer.builder("auth.password.hash").description("Time spent computing a password hash").register(meterRegistry);
+        this.waits = Timer.builder("auth.password.wait").description("Time a hash waited for a hashing thread").register(meterRegistry);
+        this.rejected = Counter.builder("auth.password.rejected").description("Hashes turned away while the pool was full").register(meterRegistry);
+        Gauge.builder("auth.password.queue", executor, pool -> pool.getQueue().size())
+                .description("Hashes waiting for a hashing thread").register(meterRegistry);
+        Gauge.builder("auth.password.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Hashes being computed").register(meterRegistry);
+        Gauge.builder("auth.password.strength", this, hasher -> strength)
+                .description("BCrypt cost used for new hashes").register(meterRegistry);
+        log.info("Hashing passwords with BCrypt cost {} on {} threads", strength, threads);
+    }
+
+    /**
+     * The highest BCrypt cost, at least the Spring default of {@value #MIN_STRENGTH}, at which one hash on this
+     * machine is expected to take no longer than {@code targetMillis}. Each step up doubles the cost, so only the
+     * lowest cost is measured.
+     */
+    public static int calibrate(long targetMillis) {
+        BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(MIN_STRENGTH);
+        String password = UUID.randomUUID().toString();
+        // The first hash pays for class loading and JIT, it is not counted
+        encoder.encode(password);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long started = System.nanoTime();
+            encoder.encode(password);
+            best = Math.min(best, System.nanoTime() - started);
+        }
+        double millis = best / 1_000_000.0;
+        int strength = MIN_STRENGTH;
+        while (strength < MAX_STRENGTH && millis * 2 <= targetMillis) {
+            millis *= 2;
+            strength++;
+        }
+        log.info("Calibrated BCrypt cost {} for a {} ms target, about {} ms per hash", strength, targetMillis, Math.round(millis));
+        return strength;
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return run(() -> delegate.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return run(() -> delegate.matches(rawPassword, encodedPassword));
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private <T> T run(Callable<T> hash) {
+        long submitted = System.nanoTime();
+        Future<T> result;
+        try {
+            result = executor.submit(() -> {
+                long started = System.nanoTime();
+                waits.record(started - submitted, TimeUnit.NANOSECONDS);
+                try {
+                    return hash.call();
+                } finally {
+                    hashes.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new PasswordHashingBusyException("Too many authentication requests, try again shortly");
+        }
+        try {
+            return result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            rejected.increment();
+            throw new PasswordHashingBusyException("Too many authentication requests, try again shortly");
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PasswordHashingBusyException("Interrupted while hashing password");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
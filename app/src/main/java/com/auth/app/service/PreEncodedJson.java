@@ -0,0 +1,58 @@
+package com.auth.app.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * A socket.io event argument serialized to JSON once. The socket server still encodes every packet per
+ * recipient, but for this argument that only copies the cached UTF-8 bytes instead of serializing the object
+ * again. Encoded with the same settings as the socket server's own mapper, so clients see identical JSON.
+ */
+@JsonSerialize(using = PreEncodedJson.Writer.class)
+public final class PreEncodedJson implements Serializable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    private final SerializedString json;
+
+    private PreEncodedJson(String json) {
+        this.json = new SerializedString(json);
+        // Computed up front so recipients never race to build it
+        this.json.asUnquotedUTF8();
+    }
+
+    public static PreEncodedJson of(Object value) {
+        try {
+            return new PreEncodedJson(MAPPER.writeValueAsString(value));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Could not encode " + value.getClass().getSimpleName(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return json.getValue();
+    }
+
+    static final class Writer extends StdSerializer<PreEncodedJson> {
+
+        Writer() {
+            super(PreEncodedJson.class);
+        }
+
+        @Override
+        public void serialize(PreEncodedJson value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeRawValue(value.json);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.auth.app.service;
+
+import com.auth.app.DTO.PresenceUpdate;
+import com.auth.app.cluster.ClusterBus;
+import com.auth.app.jwt.service.TokenClaims;
+import com.corundumstudio.socketio.SocketIOClient;
+import com.corundumstudio.socketio.SocketIOServer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * In-memory registry of who is connected, which rooms each socket has joined and who is typing where.
+ * Changes only mark a room dirty, a single ticker then sends at most one "presence" event per room and
+ * broadcast interval, and none when nothing visible changed. Nothing here touches Mongo.
+ * <p>
+ * In clustered mode each node publishes its own part of a room's state and merges what the other nodes
+ * publish, then delivers the merged state to the clients connected to it. Nodes republish periodically and a
+ * node that stops doing so is dropped from the merge.
+ */
+@Log4j2
+@Service
+public class PresenceService {
+
+    private static final String CHANNEL = "chat.presence";
+
+    private record Session(String userId, String email, Set<String> rooms) {
+    }
+
+    private record NodePresence(String nodeId, PresenceUpdate update) implements Serializable {
+    }
+
+    private record RemoteState(PresenceUpdate update, long receivedAt) {
+    }
+
+    private final ObjectProvider<SocketIOServer> server;
+    private final ClusterBus clusterBus;
+    private final long broadcastIntervalMillis;
+    private final long typingTimeoutNanos;
+    private final long refreshIntervalNanos;
+    private final Map<UUID, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Integer> connectionsPerUser = new ConcurrentHashMap<>();
+    // roomId -> sessionId -> email of the sockets currently joined to the room
+    private final Map<String, Map<UUID, String>> roomSessions = new ConcurrentHashMap<>();
+    // roomId -> email -> System.nanoTime() at which the typing indicator lapses
+    private final Map<String, Map<String, Long>> typing = new ConcurrentHashMap<>();
+    // roomId -> nodeId -> the state other nodes last published for the room
+    private final Map<String, Map<String, RemoteState>> remote = new ConcurrentHashMap<>();
+    private final Set<String> dirtyRooms = ConcurrentHashMap.newKeySet();
+    private final Map<String, PresenceUpdate> lastSent = new ConcurrentHashMap<>();
+    private final Map<String, PresenceUpdate> lastPublished = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "presence-broadcast");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long lastRefresh = System.nanoTime();
+
+    public PresenceService(ObjectProvider<SocketIOServer> server, ClusterBus clusterBus,
+                           @Value("${chat.presence.broadcast-interval-ms:250}") long broadcastIntervalMillis,
+                           @Value("${chat.presence.typing-timeout-ms:5000}") long typingTimeoutMillis,
+                           @Value("${chat.presence.cluster-refresh-ms:10000}") long refreshIntervalMillis) {
+        this.server = server;
+        this.clusterBus = clusterBus;
+        this.broadcastIntervalMillis = broadcastIntervalMillis;
+        this.typingTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(typingTimeoutMillis);
+        this.refreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(refreshIntervalMillis);
+        clusterBus.subscribe(CHANNEL, NodePresence.class, this::receive);
+    }
+
+    @PostConstruct
+    public void start() {
+        ticker.scheduleWithFixedDelay(this::broadcastSafely, broadcastIntervalMillis, broadcastIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        ticker.shutdownNow();
+        // Let the other nodes drop this one right away instead of waiting for its state to go stale
+        lastPublished.keySet().forEach(roomId ->
+                publish(new PresenceUpdate(roomId, List.of(), List.of())));
+    }
+
+    public void connected(UUID sessionId, TokenClaims claims) {
+        sessions.put(sessionId, new Session(claims.id(), claims.email(), ConcurrentHashMap.newKeySet()));
+        connectionsPerUser.merge(claims.id(), 1, Integer::sum);
+    }
+
+    public void disconnected(UUID sessionId) {
+        Session session = sessions.remove(sessionId);
+        if (session == null) {
+            return;
+        }
+        connectionsPerUser.computeIfPresent(session.userId(), (userId, count) -> count > 1 ? count - 1 : null);
+        for (String roomId : session.rooms()) {
+            removeFromRoom(roomId, sessionId, session);
+        }
+    }
+
+    public void joined(UUID sessionId, String roomId) {
+        Session session = sessions.get(sessionId);
+        if (session == null || !session.rooms().add(roomId)) {
+            return;
+        }
+        roomSessions.computeIfAbsent(roomId, id -> new ConcurrentHashMap<>()).put(sessionId, session.email());
+        dirtyRooms.add(roomId);
+    }
+
+    public void left(UUID sessionId, String roomId) {
+        Session session = sessions.get(sessionId);
+        if (session != null && session.rooms().remove(roomId)) {
+            removeFromRoom(roomId, sessionId, session);
+        }
+    }
+
+    /**
+     * Records that the socket's user started or stopped typing. Ignored unless the socket has joined the room.
+     */
+    public void typing(UUID sessionId, String roomId, boolean isTyping) {
+        Session session = sessions.get(sessionId);
+        if (session == null || !session.rooms().contains(roomId)) {
+            return;
+        }
+        if (isTyping) {
+            typing.computeIfAbsent(roomId, id -> new ConcurrentHashMap<>())
+                    .put(session.email(), System.nanoTime() + typingTimeoutNanos);
+            dirtyRooms.add(roomId);
+        } else {
+            Map<String, Long> typists = typing.get(roomId);
+            if (typists != null && typists.remove(session.email()) != null) {
+                dirtyRooms.add(roomId);
+            }
+        }
+    }
+
+    /**
+     * Whether the user has a socket connected to this node.
+     */
+    public boolean isOnline(String userId) {
+        return connectionsPerUser.containsKey(userId);
+    }
+
+    public PresenceUpdate snapshot(String roomId) {
+        PresenceUpdate local = localSnapshot(roomId);
+        Map<String, RemoteState> nodes = remote.get(roomId);
+        if (nodes == null || nodes.isEmpty()) {
+            return local;
+        }
+        List<PresenceUpdate> parts = Stream.concat(Stream.of(local), nodes.values().stream().map(RemoteState::update)).toList();
+        return new PresenceUpdate(roomId,
+                parts.stream().flatMap(part -> part.online().stream()).distinct().sorted().toList(),
+                parts.stream().flatMap(part -> part.typing().stream()).distinct().sorted().toList());
+    }
+
+    private PresenceUpdate localSnapshot(String roomId) {
+        Map<UUID, String> present = roomSessions.getOrDefault(roomId, Map.of());
+        Map<String, Long> typists = typing.getOrDefault(roomId, Map.of());
+        long now = System.nanoTime();
+        return new PresenceUpdate(roomId,
+                present.values().stream().distinct().sorted().toList(),
+                typists.entrySet().stream()
+                        .filter(entry -> entry.getValue() - now > 0)
+                        .map(Map.Entry::getKey)
+                        .sorted()
+                        .toList());
+    }
+
+    private void removeFromRoom(String roomId, UUID sessionId, Session session) {
+        roomSessions.computeIfPresent(roomId, (id, present) -> {
+            present.remove(sessionId);
+            return present.isEmpty() ? null : present;
+        });
+        if (!roomSessions.getOrDefault(roomId, Map.of()).containsValue(session.email())) {
+            Map<String, Long> typists = typing.get(roomId);
+            if (typists != null) {
+                typists.remove(session.email());
+            }
+        }
+        dirtyRooms.add(roomId);
+    }
+
+    private void receive(NodePresence presence) {
+        String roomId = presence.update().roomId();
+        if (isEmpty(presence.update())) {
+            remote.computeIfPresent(roomId, (id, nodes) -> {
+                nodes.remove(presence.nodeId());
+                return nodes.isEmpty() ? null : nodes;
+            });
+        } else {
+            remote.computeIfAbsent(roomId, id -> new ConcurrentHashMap<>())
+                    .put(presence.nodeId(), new RemoteState(presence.update(), System.nanoTime()));
+        }
+        dirtyRooms.add(roomId);
+    }
+
+    private void publish(PresenceUpdate update) {
+        clusterBus.publish(CHANNEL, new NodePresence(clusterBus.nodeId(), update));
+    }
+
+    private void broadcastSafely() {
+        try {
+            broadcast();
+        } catch (RuntimeException e) {
+            log.error("Presence broadcast failed", e);
+        }
+    }
+
+    private void broadcast() {
+        long now = System.nanoTime();
+        // Lapsed typing indicators change what the room sees, so they count as a change too
+        typing.forEach((roomId, typists) -> {
+            if (typists.values().removeIf(expiresAt -> expiresAt - now <= 0)) {
+                dirtyRooms.add(roomId);
+            }
+            if (typists.isEmpty()) {
+                typing.remove(roomId, typists);
+            }
+        });
+
+        if (clusterBus.isClustered()) {
+            remote.forEach((roomId, nodes) -> {
+                if (nodes.values().removeIf(state -> now - state.receivedAt() > 3 * refreshIntervalNanos)) {
+                    dirtyRooms.add(roomId);
+                }
+                if (nodes.isEmpty()) {
+                    remote.remove(roomId, nodes);
+                }
+            });
+            if (now - lastRefresh >= refreshIntervalNanos) {
+                lastRefresh = now;
+                lastPublished.values().forEach(this::publish);
+            }
+        }
+
+        SocketIOServer socketServer = server.getIfAvailable();
+        for (String roomId : dirtyRooms) {
+            dirtyRooms.remove(roomId);
+            if (clusterBus.isClustered()) {
+                PresenceUpdate local = localSnapshot(roomId);
+                if (!local.equals(lastPublished.get(roomId))) {
+                    publish(local);
+                    if (isEmpty(local)) {
+                        lastPublished.remove(roomId);
+                    } else {
+                        lastPublished.put(roomId, local);
+                    }
+                }
+            }
+
+            PresenceUpdate update = snapshot(roomId);
+            if (update.equals(lastSent.get(roomId))) {
+                continue;
+            }
+            if (update.online().isEmpty()) {
+                lastSent.remove(roomId);
+            } else {
+                lastSent.put(roomId, update);
+            }
+            if (socketServer != null) {
+                // Only this node's clients, every other node delivers the same merged state to its own
+                for (WireFormat format : WireFormat.values()) {
+                    Collection<SocketIOClient> clients = socketServer.getRoomOperations(format.room(roomId)).getClients();
+                    if (!clients.isEmpty()) {
+                        Object encoded = format.encode(update);
+                        clients.forEach(client -> client.sendEvent("presence", encoded));
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isEmpty(PresenceUpdate update) {
+        return update.online().isEmpty() && update.typing().isEmpty();
+    }
+}
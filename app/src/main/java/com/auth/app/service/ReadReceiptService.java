@@ -0,0 +1,86 @@
+package com.auth.app.service;
+
+import com.auth.app.model.ReadWatermark;
+import com.auth.app.repository.ReadWatermarkRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks how far each user has read in each room as the sequence number of the last read message.
+ * Watermarks only ever move forward and are merged in memory, then written in one unordered bulk upsert
+ * per flush, so scrolling through a room costs at most one write per room and flush interval.
+ */
+@Log4j2
+@Service
+@RequiredArgsConstructor
+public class ReadReceiptService {
+
+    private final ReadWatermarkRepository readWatermarkRepository;
+    private final MongoTemplate mongoTemplate;
+    // userId -> roomId -> last read seq, not yet written to Mongo
+    private final Map<String, Map<String, Long>> pending = new ConcurrentHashMap<>();
+
+    public void markRead(String userId, String roomId, long seq) {
+        pending.compute(userId, (id, rooms) -> {
+            Map<String, Long> unflushed = rooms != null ? rooms : new ConcurrentHashMap<>();
+            unflushed.merge(roomId, seq, Math::max);
+            return unflushed;
+        });
+    }
+
+    /**
+     * The user's watermark per room, including updates that have not been flushed yet.
+     */
+    public Map<String, Long> getWatermarks(String userId) {
+        Map<String, Long> watermarks = new HashMap<>();
+        Map<String, Long> unflushed = pending.get(userId);
+        if (unflushed != null) {
+            watermarks.putAll(unflushed);
+        }
+        for (ReadWatermark watermark : readWatermarkRepository.findByUserId(userId)) {
+            watermarks.merge(watermark.getRoomId(), watermark.getLastReadSeq(), Math::max);
+        }
+        return watermarks;
+    }
+
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${chat.read.flush-interval-ms:2000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<String, Map<String, Long>> snapshot = new HashMap<>();
+        pending.forEach((userId, rooms) -> snapshot.put(userId, Map.copyOf(rooms)));
+
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ReadWatermark.class);
+        Date now = new Date();
+        snapshot.forEach((userId, rooms) -> rooms.forEach((roomId, seq) -> bulk.upsert(
+                new Query(Criteria.where("userId").is(userId).and("roomId").is(roomId)),
+                new Update().max("lastReadSeq", seq).set("updatedAt", now))));
+        try {
+            bulk.execute();
+        } catch (RuntimeException e) {
+            log.error("Failed to flush read watermarks, retrying on the next flush", e);
+            return;
+        }
+
+        // Drop only what was written, a watermark that moved on during the flush stays for the next one
+        snapshot.forEach((userId, rooms) -> pending.computeIfPresent(userId, (id, unflushed) -> {
+            rooms.forEach(unflushed::remove);
+            return unflushed.isEmpty() ? null : unflushed;
+        }));
+    }
+}
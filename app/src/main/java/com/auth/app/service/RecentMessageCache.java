@@ -0,0 +1,288 @@
+package com.auth.app.service;
+
+import com.auth.app.cluster.ClusterBus;
+import com.auth.app.model.Message;
+import com.auth.app.repository.MessageRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Keeps the newest messages of active rooms in memory so the head of a room's history can be read without
+ * going to Mongo. Every accepted message is appended, and a room is loaded from Mongo the first time its
+ * latest page is read. A room's buffer always holds every message from its oldest entry up to the newest
+ * one, so any read that falls inside that range can be answered from memory.
+ * <p>
+ * In clustered mode appends and removals are relayed to the other nodes so their buffers see every message.
+ * <p>
+ * Buffers are dropped when idle and, least recently used first, whenever the estimated size of all buffers
+ * goes over the configured budget.
+ */
+@Service
+public class RecentMessageCache {
+
+    private static final class RoomBuffer {
+        private final NavigableMap<String, Message> messages = new TreeMap<>();
+        // true when the buffer holds the room's entire history
+        private boolean complete;
+        private long bytes;
+        private volatile long lastAccess = System.nanoTime();
+    }
+
+    private static final String APPENDED = "chat.messages.appended";
+    private static final String REMOVED = "chat.messages.removed";
+
+    private final MessageRepository messageRepository;
+    private final MessageArchive messageArchive;
+    private final MessageWriter messageWriter;
+    private final ClusterBus clusterBus;
+    private final int roomCapacity;
+    private final long maxBytes;
+    private final long idleTimeoutNanos;
+    private final Map<String, RoomBuffer> buffers = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    public RecentMessageCache(MessageRepository messageRepository, MessageArchive messageArchive,
+                              MessageWriter messageWriter, ClusterBus clusterBus,
+                              @Value("${chat.cache.recent.room-capacity:200}") int roomCapacity,
+                              @Value("${chat.cache.recent.max-bytes:67108864}") long maxBytes,
+                              @Value("${chat.cache.recent.idle-timeout-minutes:30}") long idleTimeoutMinutes) {
+        this.messageRepository = messageRepository;
+        this.messageArchive = messageArchive;
+        this.messageWriter = messageWriter;
+        this.clusterBus = clusterBus;
+        this.roomCapacity = roomCapacity;
+        this.maxBytes = maxBytes;
+        this.idleTimeoutNanos = TimeUnit.MINUTES.toNanos(idleTimeoutMinutes);
+        clusterBus.subscribe(APPENDED, Message.class, this::appendLocally);
+        clusterBus.subscribe(REMOVED, Message.class, this::removeLocally);
+    }
+
+    public void append(Message message) {
+        appendLocally(message);
+        clusterBus.publish(APPENDED, message);
+    }
+
+    public void remove(Message message) {
+        removeLocally(message);
+        clusterBus.publish(REMOVED, message);
+    }
+
+    private void appendLocally(Message message) {
+        buffers.compute(message.getRoomId(), (roomId, buffer) -> {
+            RoomBuffer target = buffer != null ? buffer : new RoomBuffer();
+            synchronized (target) {
+                add(target, message);
+                trim(target);
+            }
+            target.lastAccess = System.nanoTime();
+            return target;
+        });
+        enforceBudget();
+    }
+
+    private void removeLocally(Message message) {
+        buffers.computeIfPresent(message.getRoomId(), (roomId, buffer) -> {
+            synchronized (buffer) {
+                Message removed = buffer.messages.remove(message.getMessageId());
+                if (removed != null) {
+                    long size = estimateSize(removed);
+                    buffer.bytes -= size;
+                    totalBytes.addAndGet(-size);
+                }
+            }
+            return buffer;
+        });
+    }
+
+    public Optional<Message> find(String roomId, String messageId) {
+        return read(roomId, buffer -> buffer.messages.get(messageId));
+    }
+
+    /**
+     * The newest {@code limit} messages of a room in chronological order, loading the room from Mongo on a miss.
+     * Empty only when more messages are asked for than a room buffer holds.
+     */
+    public Optional<List<Message>> latest(String roomId, int limit) {
+        if (limit > roomCapacity) {
+            return Optional.empty();
+        }
+        Optional<List<Message>> cached = read(roomId, buffer -> latest(buffer, limit));
+        if (cached.isPresent()) {
+            return cached;
+        }
+        RoomBuffer buffer = load(roomId);
+        synchronized (buffer) {
+            return Optional.ofNullable(latest(buffer, limit));
+        }
+    }
+
+    public Optional<List<Message>> before(String roomId, String messageId, int limit) {
+        return read(roomId, buffer -> {
+            NavigableMap<String, Message> older = buffer.messages.headMap(messageId, false);
+            if (older.size() < limit && !buffer.complete) {
+                return null;
+            }
+            return last(older, limit);
+        });
+    }
+
+    public Optional<List<Message>> after(String roomId, String messageId, int limit) {
+        return read(roomId, buffer -> {
+            if (!buffer.complete && (buffer.messages.isEmpty() || messageId.compareTo(buffer.messages.firstKey()) < 0)) {
+                return null;
+            }
+            return buffer.messages.tailMap(messageId, false).values().stream().limit(limit).toList();
+        });
+    }
+
+    public Optional<List<Message>> since(String roomId, long seq, int limit) {
+        return read(roomId, buffer -> {
+            if (!buffer.complete && (buffer.messages.isEmpty() || buffer.messages.firstEntry().getValue().getSeq() > seq + 1)) {
+                return null;
+            }
+            return buffer.messages.values().stream()
+                    .filter(message -> message.getSeq() > seq)
+                    .sorted(Comparator.comparingLong(Message::getSeq))
+                    .limit(limit)
+                    .toList();
+        });
+    }
+
+    public Optional<List<Message>> all(String roomId) {
+        return read(roomId, buffer -> buffer.complete ? List.copyOf(buffer.messages.values()) : null);
+    }
+
+    @Scheduled(fixedDelay = 60_000)
+    public void evictIdle() {
+        long now = System.nanoTime();
+        buffers.forEach((roomId, buffer) -> {
+            if (now - buffer.lastAccess > idleTimeoutNanos) {
+                evict(roomId, buffer);
+            }
+        });
+    }
+
+    private <T> Optional<T> read(String roomId, Function<RoomBuffer, T> reader) {
+        RoomBuffer buffer = buffers.get(roomId);
+        if (buffer == null) {
+            return Optional.empty();
+        }
+        buffer.lastAccess = System.nanoTime();
+        synchronized (buffer) {
+            return Optional.ofNullable(reader.apply(buffer));
+        }
+    }
+
+    private RoomBuffer load(String roomId) {
+        // Buffered messages are read before Mongo so a message being flushed in between is seen by one of the two
+        List<Message> pending = messageWriter.unpersisted(roomId, Long.MIN_VALUE);
+        List<Message> stored = messageRepository.findByRoomId(roomId,
+                PageRequest.of(0, roomCapacity, Sort.by(Sort.Direction.DESC, "messageId")));
+
+        // Older messages may have moved to the archive, in which case the hot ones are not the whole history
+        boolean complete = stored.size() < roomCapacity && !messageArchive.contains(roomId);
+
+        RoomBuffer loaded = buffers.compute(roomId, (id, buffer) -> {
+            RoomBuffer target = buffer != null ? buffer : new RoomBuffer();
+            synchronized (target) {
+                pending.forEach(message -> add(target, message));
+                stored.forEach(message -> add(target, message));
+                target.complete = complete;
+                trim(target);
+            }
+            target.lastAccess = System.nanoTime();
+            return target;
+        });
+        enforceBudget();
+        return loaded;
+    }
+
+    private void add(RoomBuffer buffer, Message message) {
+        if (buffer.messages.putIfAbsent(message.getMessageId(), message) == null) {
+            long size = estimateSize(message);
+            buffer.bytes += size;
+            totalBytes.addAndGet(size);
+        }
+    }
+
+    private void trim(RoomBuffer buffer) {
+        while (buffer.messages.size() > roomCapacity) {
+            Message oldest = buffer.messages.pollFirstEntry().getValue();
+            long size = estimateSize(oldest);
+            buffer.bytes -= size;
+            totalBytes.addAndGet(-size);
+            buffer.complete = false;
+        }
+    }
+
+    private void enforceBudget() {
+        if (totalBytes.get() <= maxBytes) {
+            return;
+        }
+        List<Map.Entry<String, RoomBuffer>> byAge = new ArrayList<>(buffers.entrySet());
+        byAge.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+        for (Map.Entry<String, RoomBuffer> entry : byAge) {
+            if (totalBytes.get() <= maxBytes) {
+                break;
+            }
+            evict(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void evict(String roomId, RoomBuffer buffer) {
+        if (buffers.remove(roomId, buffer)) {
+            synchronized (buffer) {
+                totalBytes.addAndGet(-buffer.bytes);
+            }
+        }
+    }
+
+    private static List<Message> latest(RoomBuffer buffer, int limit) {
+        if (buffer.messages.size() < limit && !buffer.complete) {
+            return null;
+        }
+        return last(buffer.messages, limit);
+    }
+
+    private static List<Message> last(NavigableMap<String, Message> messages, int limit) {
+        List<Message> newest = new ArrayList<>(Math.min(limit, messages.size()));
+        for (Message message : messages.descendingMap().values()) {
+            if (newest.size() == limit) {
+                break;
+            }
+            newest.add(message);
+        }
+        Collections.reverse(newest);
+        return newest;
+    }
+
+    private static long estimateSize(Message message) {
+        long size = 160;
+        if (message.getText() != null) {
+            size += 2L * message.getText().length();
+        }
+        if (message.getSender() != null) {
+            size += 2L * message.getSender().length();
+        }
+        if (message.getVoice() != null) {
+            size += 120;
+        }
+        return size;
+    }
+}
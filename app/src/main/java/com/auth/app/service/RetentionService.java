@@ -0,0 +1,122 @@
+package com.auth.app.service;
+
+import com.auth.app.model.Message;
+import com.auth.app.repository.MessageRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves messages older than the retention window out of the messages collection and into the archive, so the
+ * hot collection and its indexes only grow with recent traffic. A segment is written before the messages it holds
+ * are deleted, and rewriting a segment is idempotent, so an interrupted run is simply repeated by the next one.
+ * Runs on its own thread so a long pass never holds up the shared scheduler, and each run is capped so a large
+ * backlog is worked off over several runs.
+ */
+@Log4j2
+@Service
+public class RetentionService {
+
+    private final MongoTemplate mongoTemplate;
+    private final MessageRepository messageRepository;
+    private final MessageArchive messageArchive;
+    private final long archiveAfterMillis;
+    private final int segmentMessages;
+    private final int maxRoomsPerRun;
+    private final long maxMessagesPerRun;
+    private final long initialDelayMillis;
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "message-retention");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RetentionService(MongoTemplate mongoTemplate, MessageRepository messageRepository, MessageArchive messageArchive,
+                            @Value("${chat.retention.archive-after-days:90}") long archiveAfterDays,
+                            @Value("${chat.retention.segment-messages:2000}") int segmentMessages,
+                            @Value("${chat.retention.max-rooms-per-run:100}") int maxRoomsPerRun,
+                            @Value("${chat.retention.max-messages-per-run:200000}") long maxMessagesPerRun,
+                            @Value("${chat.retention.initial-delay-ms:300000}") long initialDelayMillis,
+                            @Value("${chat.retention.interval-ms:3600000}") long intervalMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.messageRepository = messageRepository;
+        this.messageArchive = messageArchive;
+        this.archiveAfterMillis = TimeUnit.DAYS.toMillis(archiveAfterDays);
+        this.segmentMessages = segmentMessages;
+        this.maxRoomsPerRun = maxRoomsPerRun;
+        this.maxMessagesPerRun = maxMessagesPerRun;
+        this.initialDelayMillis = initialDelayMillis;
+        this.intervalMillis = intervalMillis;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (archiveAfterMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::archiveOldMessages, initialDelayMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    public void archiveOldMessages() {
+        if (archiveAfterMillis <= 0) {
+            return;
+        }
+        // Message ids are ObjectIds, so their order is the order messages were created in
+        ObjectId cutoff = ObjectId.getSmallestWithDate(new Date(System.currentTimeMillis() - archiveAfterMillis));
+        List<String> roomIds = mongoTemplate.findDistinct(new Query(Criteria.where("_id").lt(cutoff)), "roomId",
+                Message.class, String.class);
+        long budget = maxMessagesPerRun;
+        int rooms = 0;
+        for (String roomId : roomIds) {
+            if (rooms == maxRoomsPerRun || budget <= 0 || Thread.currentThread().isInterrupted()) {
+                log.info("Retention run stopped after {} chat rooms, the rest is left for the next run", rooms);
+                return;
+            }
+            rooms++;
+            try {
+                long archived = archiveRoom(roomId, cutoff.toHexString(), budget);
+                budget -= archived;
+                log.info("Archived {} messages of chat room {}", archived, roomId);
+            } catch (RuntimeException e) {
+                log.warn("Archiving chat room {} failed, retrying on the next run", roomId, e);
+            }
+        }
+    }
+
+    private long archiveRoom(String roomId, String cutoff, long budget) {
+        long archived = 0;
+        while (archived < budget) {
+            List<Message> batch = messageRepository.findByRoomIdAndMessageIdLessThan(roomId, cutoff,
+                    PageRequest.of(0, segmentMessages, Sort.by(Sort.Direction.ASC, "messageId")));
+            if (batch.isEmpty()) {
+                return archived;
+            }
+            messageArchive.write(roomId, batch);
+            messageRepository.deleteAllById(batch.stream().map(Message::getMessageId).toList());
+            archived += batch.size();
+            if (batch.size() < segmentMessages) {
+                return archived;
+            }
+        }
+        return archived;
+    }
+}
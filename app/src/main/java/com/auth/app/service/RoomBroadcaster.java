@@ -0,0 +1,149 @@
+package com.auth.app.service;
+
+import com.auth.app.cluster.ClusterBus;
+import com.auth.app.model.Message;
+import com.corundumstudio.socketio.BroadcastOperations;
+import com.corundumstudio.socketio.SocketIOServer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends new messages to the members of a room. By default every message goes out on its own as "newMessage".
+ * With batching enabled, messages for a room are collected for a short window, or until the batch is full, and
+ * sent as one "newMessages" array in the order they were submitted. A batch of one still goes out as "newMessage".
+ * {@link ChatService} submits a room's messages under the same lock that numbers them, so that order is seq order.
+ * <p>
+ * Each room adapts its own window: it doubles while flushes carry more than one message, or while messages
+ * follow each other closely, and halves when a window catches a single message, so quiet rooms send at once
+ * and busy ones trade a few milliseconds of latency for far fewer frames.
+ * <p>
+ * Payloads are serialized once per broadcast and {@link WireFormat}, not once per recipient.
+ */
+@Log4j2
+@Service
+public class RoomBroadcaster {
+
+    private static final long MIN_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final class RoomBatch {
+        private final String roomId;
+        private List<Message> pending = new ArrayList<>();
+        private boolean scheduled;
+        private long windowNanos;
+        private long lastFlush;
+
+        private RoomBatch(String roomId) {
+            this.roomId = roomId;
+            this.lastFlush = System.nanoTime() - maxWindowNanos;
+        }
+    }
+
+    private final SocketIOServer server;
+    private final ClusterBus clusterBus;
+    private final boolean batching;
+    private final int maxBatch;
+    private final long maxWindowNanos;
+    private final Map<String, RoomBatch> batches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "room-broadcast");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RoomBroadcaster(SocketIOServer server, ClusterBus clusterBus,
+                           @Value("${chat.broadcast.batching:false}") boolean batching,
+                           @Value("${chat.broadcast.max-batch:50}") int maxBatch,
+                           @Value("${chat.broadcast.max-window-ms:50}") long maxWindowMillis) {
+        this.server = server;
+        this.clusterBus = clusterBus;
+        this.batching = batching;
+        this.maxBatch = maxBatch;
+        this.maxWindowNanos = TimeUnit.MILLISECONDS.toNanos(maxWindowMillis);
+        if (batching) {
+            scheduler.scheduleWithFixedDelay(this::dropIdle, 1, 1, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdown();
+        batches.values().forEach(this::flush);
+    }
+
+    public void broadcast(Message message) {
+        if (!batching) {
+            send(message.getRoomId(), "newMessage", message);
+            return;
+        }
+
+        RoomBatch batch = batches.computeIfAbsent(message.getRoomId(), RoomBatch::new);
+        synchronized (batch) {
+            batch.pending.add(message);
+            if (batch.pending.size() >= maxBatch || batch.windowNanos == 0) {
+                flush(batch);
+            } else if (!batch.scheduled) {
+                batch.scheduled = true;
+                scheduler.schedule(() -> flush(batch), batch.windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private void flush(RoomBatch batch) {
+        synchronized (batch) {
+            batch.scheduled = false;
+            if (batch.pending.isEmpty()) {
+                return;
+            }
+            List<Message> messages = batch.pending;
+            batch.pending = new ArrayList<>();
+
+            long now = System.nanoTime();
+            boolean busy = messages.size() > 1 || now - batch.lastFlush < maxWindowNanos / 4;
+            batch.windowNanos = busy
+                    ? Math.min(maxWindowNanos, Math.max(MIN_WINDOW_NANOS, batch.windowNanos * 2))
+                    : batch.windowNanos / 2 < MIN_WINDOW_NANOS ? 0 : batch.windowNanos / 2;
+            batch.lastFlush = now;
+
+            // Sent while holding the batch so the next flush of this room cannot overtake it
+            try {
+                if (messages.size() == 1) {
+                    send(batch.roomId, "newMessage", messages.get(0));
+                } else {
+                    send(batch.roomId, "newMessages", messages);
+                }
+            } catch (RuntimeException e) {
+                log.error("Broadcast to room " + batch.roomId + " failed", e);
+            }
+        }
+    }
+
+    private void send(String roomId, String event, Object payload) {
+        for (WireFormat format : WireFormat.values()) {
+            BroadcastOperations room = server.getRoomOperations(format.room(roomId));
+            // Members on other nodes are not visible here, so a clustered node always relays
+            if (clusterBus.isClustered() || !room.getClients().isEmpty()) {
+                room.sendEvent(event, format.encode(payload));
+            }
+        }
+    }
+
+    private void dropIdle() {
+        long now = System.nanoTime();
+        batches.values().removeIf(batch -> {
+            synchronized (batch) {
+                return batch.pending.isEmpty() && !batch.scheduled && now - batch.lastFlush > IDLE_NANOS;
+            }
+        });
+    }
+}
@@ -0,0 +1,125 @@
+package com.auth.app.service;
+
+import com.auth.app.exceptions.ChatRoomException;
+import com.auth.app.jwt.service.TokenClaims;
+import com.auth.app.model.Message;
+import com.auth.app.model.RoomMembership;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the full history of a room as newline delimited JSON, one message per line in chronological order.
+ * Archived segments are decoded one at a time and the messages collection is read through a cursor in batches
+ * of {@code batchSize}, so memory use does not depend on the size of the room.
+ */
+@Service
+public class RoomExporter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final MongoTemplate mongoTemplate;
+    private final MessageArchive messageArchive;
+    private final MessageWriter messageWriter;
+    private final RoomMembershipCache roomMembershipCache;
+    private final ObjectWriter writer;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+
+    public RoomExporter(MongoTemplate mongoTemplate, MessageArchive messageArchive, MessageWriter messageWriter,
+                        RoomMembershipCache roomMembershipCache, ObjectMapper objectMapper,
+                        @Value("${chat.export.batch-size:500}") int batchSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.messageArchive = messageArchive;
+        this.messageWriter = messageWriter;
+        this.roomMembershipCache = roomMembershipCache;
+        this.objectMapper = objectMapper;
+        // Flushing after every message would defeat the output buffer and the compression
+        this.writer = objectMapper.writerFor(Message.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.batchSize = batchSize;
+    }
+
+    public void checkParticipant(TokenClaims claims, String roomId) throws ChatRoomException {
+        RoomMembership room = roomMembershipCache.get(roomId).orElseThrow(() -> new ChatRoomException("Invalid chat room"));
+        if (!room.isParticipant(claims.id())) {
+            throw new ChatRoomException("User with id " + claims.id() + " is not a participant of this chat room");
+        }
+    }
+
+    public void export(String roomId, OutputStream out, boolean gzip) throws IOException {
+        OutputStream target = gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : new BufferedOutputStream(out, BUFFER_SIZE);
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(target);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        ExportCursor cursor = new ExportCursor(generator);
+
+        // Buffered messages are read before Mongo so a message being flushed in between is seen by one of the two
+        List<Message> pending = messageWriter.unpersisted(roomId, Long.MIN_VALUE);
+        try {
+            messageArchive.forEach(roomId, segment -> segment.forEach(cursor::write));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Query query = new Query(Criteria.where("roomId").is(roomId))
+                .with(Sort.by(Sort.Direction.ASC, "messageId"))
+                .cursorBatchSize(batchSize)
+                // A slow client can leave the cursor idle for longer than the server's default timeout
+                .noCursorTimeout();
+        try (Stream<Message> stored = mongoTemplate.stream(query, Message.class)) {
+            stored.forEach(cursor::write);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (Message message : pending) {
+            if (message.getSeq() > cursor.lastSeq) {
+                cursor.write(message);
+            }
+        }
+
+        generator.flush();
+        if (target instanceof GZIPOutputStream compressed) {
+            compressed.finish();
+        }
+        target.flush();
+    }
+
+    private final class ExportCursor {
+        private final JsonGenerator generator;
+        // Messages archived while the export runs can be read from both the archive and the messages collection
+        private String lastMessageId = "";
+        private long lastSeq = Long.MIN_VALUE;
+
+        private ExportCursor(JsonGenerator generator) {
+            this.generator = generator;
+        }
+
+        private void write(Message message) {
+            if (message.getMessageId().compareTo(lastMessageId) <= 0) {
+                return;
+            }
+            try {
+                writer.writeValue(generator, message);
+                generator.writeRaw('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            lastMessageId = message.getMessageId();
+            lastSeq = Math.max(lastSeq, message.getSeq());
+        }
+    }
+}
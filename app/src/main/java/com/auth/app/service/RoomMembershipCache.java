@@ -0,0 +1,90 @@
+package com.auth.app.service;
+
+import com.auth.app.cluster.ClusterBus;
+import com.auth.app.model.RoomMembership;
+import com.auth.app.repository.ChatRoomRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches room membership and roles so permission checks do not fetch the room document. Entries expire after
+ * the configured TTL and ChatService invalidates a room whenever it changes its members or admins, on every node
+ * of the cluster.
+ */
+@Service
+public class RoomMembershipCache {
+
+    private record Entry(RoomMembership membership, long loadedAt) {
+    }
+
+    private static final String INVALIDATED = "chat.membership.invalidated";
+
+    private final ChatRoomRepository chatRoomRepository;
+    private final ClusterBus clusterBus;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Bumped on every invalidation so a load that raced with one does not put the stale snapshot back
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public RoomMembershipCache(ChatRoomRepository chatRoomRepository, ClusterBus clusterBus,
+                               @Value("${chat.cache.membership.max-size:10000}") int maxSize,
+                               @Value("${chat.cache.membership.ttl-seconds:300}") long ttlSeconds) {
+        this.chatRoomRepository = chatRoomRepository;
+        this.clusterBus = clusterBus;
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        clusterBus.subscribe(INVALIDATED, String.class, this::invalidateLocally);
+    }
+
+    public Optional<RoomMembership> get(String roomId) {
+        Entry entry = entries.get(roomId);
+        if (entry != null && System.nanoTime() - entry.loadedAt() < ttlNanos) {
+            return Optional.of(entry.membership());
+        }
+
+        long stamp = invalidations.get();
+        Optional<RoomMembership> membership = chatRoomRepository.findById(roomId).map(RoomMembership::of);
+        membership.ifPresent(loaded -> {
+            entries.compute(roomId, (id, current) ->
+                    invalidations.get() == stamp ? new Entry(loaded, System.nanoTime()) : current);
+            if (entries.size() > maxSize) {
+                evictOldest();
+            }
+        });
+        return membership;
+    }
+
+    public void invalidate(String roomId) {
+        invalidateLocally(roomId);
+        clusterBus.publish(INVALIDATED, roomId);
+    }
+
+    private void invalidateLocally(String roomId) {
+        entries.compute(roomId, (id, current) -> {
+            invalidations.incrementAndGet();
+            return null;
+        });
+    }
+
+    private void evictOldest() {
+        long now = System.nanoTime();
+        entries.entrySet().removeIf(entry -> now - entry.getValue().loadedAt() >= ttlNanos);
+        int excess = entries.size() - maxSize;
+        if (excess > 0) {
+            entries.entrySet().stream()
+                    .sorted(Comparator.comparingLong(entry -> entry.getValue().loadedAt()))
+                    .limit(excess)
+                    .map(Map.Entry::getKey)
+                    .toList()
+                    .forEach(entries::remove);
+        }
+    }
+}
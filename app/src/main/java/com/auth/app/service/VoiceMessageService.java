@@ -0,0 +1,233 @@
+package com.auth.app.service;
+
+import com.auth.app.DTO.VoiceUploadResponse;
+import com.auth.app.exceptions.ChatRoomException;
+import com.auth.app.exceptions.InvalidUploadException;
+import com.auth.app.jwt.service.TokenClaims;
+import com.auth.app.model.Attachment;
+import com.auth.app.model.Message;
+import com.auth.app.model.RoomMembership;
+import com.auth.app.repository.MessageRepository;
+import com.auth.app.storage.BlobStore;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunked voice-message uploads. A client announces the clip, sends it in chunks at increasing offsets, each one
+ * streamed to a staging file and acknowledged with the new offset before the next is sent, and finally completes
+ * the upload, which moves the clip into the {@link BlobStore} and creates a message referencing it.
+ * <p>
+ * Uploads in progress are held by the node that started them and dropped when idle for too long.
+ */
+@Log4j2
+@Service
+public class VoiceMessageService {
+
+    private static final class Upload {
+        private final String userId;
+        private final String roomId;
+        private final String contentType;
+        private final long length;
+        private final Path file;
+        private long received;
+        private volatile long lastActivity = System.nanoTime();
+
+        private Upload(String userId, String roomId, String contentType, long length, Path file) {
+            this.userId = userId;
+            this.roomId = roomId;
+            this.contentType = contentType;
+            this.length = length;
+            this.file = file;
+        }
+    }
+
+    public record VoiceClip(Attachment attachment, Resource content) {
+    }
+
+    private final BlobStore blobStore;
+    private final ChatService chatService;
+    private final RoomMembershipCache roomMembershipCache;
+    private final RecentMessageCache recentMessageCache;
+    private final MessageRepository messageRepository;
+    private final MessageArchive messageArchive;
+    private final long maxBytes;
+    private final int maxChunkBytes;
+    private final int maxUploadsPerUser;
+    private final long uploadTimeoutNanos;
+    private final Path stagingDir;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+
+    public VoiceMessageService(BlobStore blobStore, ChatService chatService, RoomMembershipCache roomMembershipCache,
+                               RecentMessageCache recentMessageCache, MessageRepository messageRepository,
+                               MessageArchive messageArchive,
+                               @Value("${chat.voice.max-bytes:10485760}") long maxBytes,
+                               @Value("${chat.voice.max-chunk-bytes:262144}") int maxChunkBytes,
+                               @Value("${chat.voice.max-uploads-per-user:3}") int maxUploadsPerUser,
+                               @Value("${chat.voice.upload-timeout-minutes:10}") long uploadTimeoutMinutes,
+                               @Value("${chat.voice.staging-dir:${java.io.tmpdir}/voice-uploads}") Path stagingDir) throws IOException {
+        this.blobStore = blobStore;
+        this.chatService = chatService;
+        this.roomMembershipCache = roomMembershipCache;
+        this.recentMessageCache = recentMessageCache;
+        this.messageRepository = messageRepository;
+        this.messageArchive = messageArchive;
+        this.maxBytes = maxBytes;
+        this.maxChunkBytes = maxChunkBytes;
+        this.maxUploadsPerUser = maxUploadsPerUser;
+        this.uploadTimeoutNanos = TimeUnit.MINUTES.toNanos(uploadTimeoutMinutes);
+        this.stagingDir = Files.createDirectories(stagingDir);
+    }
+
+    public VoiceUploadResponse startUpload(TokenClaims claims, String roomId, String contentType, long length)
+            throws ChatRoomException, InvalidUploadException {
+        checkParticipant(claims, roomId);
+        if (contentType == null || !contentType.startsWith("audio/")) {
+            throw new InvalidUploadException("Voice messages must have an audio content type");
+        }
+        if (length <= 0 || length > maxBytes) {
+            throw new InvalidUploadException("Voice messages must be between 1 and " + maxBytes + " bytes");
+        }
+        long pending = uploads.values().stream().filter(upload -> upload.userId.equals(claims.id())).count();
+        if (pending >= maxUploadsPerUser) {
+            throw new InvalidUploadException("Too many voice uploads in progress");
+        }
+
+        String uploadId = UUID.randomUUID().toString();
+        Path file;
+        try {
+            file = Files.createFile(stagingDir.resolve(uploadId));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        uploads.put(uploadId, new Upload(claims.id(), roomId, contentType, length, file));
+        return new VoiceUploadResponse(uploadId, 0, length, maxChunkBytes);
+    }
+
+    /**
+     * Appends a chunk written at {@code offset}. A chunk at any other offset than the number of bytes received so
+     * far is not read, and the returned offset tells the client where to continue.
+     */
+    public VoiceUploadResponse appendChunk(TokenClaims claims, String uploadId, long offset, InputStream chunk)
+            throws InvalidUploadException {
+        Upload upload = getUpload(claims, uploadId);
+        synchronized (upload) {
+            if (uploads.get(uploadId) != upload) {
+                throw new InvalidUploadException("Unknown upload " + uploadId);
+            }
+            upload.lastActivity = System.nanoTime();
+            if (offset != upload.received) {
+                return response(uploadId, upload);
+            }
+            long allowed = Math.min(maxChunkBytes, upload.length - upload.received);
+            try (FileChannel channel = FileChannel.open(upload.file, StandardOpenOption.WRITE)) {
+                // One byte more than allowed is asked for, so an oversized chunk is noticed
+                long written = channel.transferFrom(Channels.newChannel(chunk), upload.received, allowed + 1);
+                if (written > allowed) {
+                    channel.truncate(upload.received);
+                    throw new InvalidUploadException("Chunks may not exceed " + allowed + " bytes here");
+                }
+                upload.received += written;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return response(uploadId, upload);
+        }
+    }
+
+    /**
+     * Stores the uploaded clip and creates its message, which is broadcast and persisted like any other one.
+     */
+    public MessageWriter.Accepted completeUpload(TokenClaims claims, String uploadId) throws InvalidUploadException {
+        Upload upload = getUpload(claims, uploadId);
+        synchronized (upload) {
+            if (upload.received != upload.length) {
+                throw new InvalidUploadException("Upload is missing " + (upload.length - upload.received) + " bytes");
+            }
+            uploads.remove(uploadId, upload);
+        }
+
+        String blobId;
+        try (InputStream content = Files.newInputStream(upload.file)) {
+            blobId = blobStore.store(content, upload.contentType);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            discard(upload);
+        }
+        try {
+            return chatService.sendVoiceMessage(upload.roomId, new Attachment(blobId, upload.contentType, upload.length), claims);
+        } catch (RuntimeException e) {
+            blobStore.delete(blobId);
+            throw e;
+        }
+    }
+
+    public VoiceClip getVoice(TokenClaims claims, String roomId, String messageId) throws ChatRoomException {
+        checkParticipant(claims, roomId);
+        Message message = recentMessageCache.find(roomId, messageId)
+                .or(() -> messageRepository.findById(messageId))
+                .or(() -> messageArchive.find(roomId, messageId))
+                .filter(found -> roomId.equals(found.getRoomId()) && found.getVoice() != null)
+                .orElseThrow(() -> new ChatRoomException("No voice message " + messageId + " in this chat room"));
+        Resource content = blobStore.load(message.getVoice().id())
+                .orElseThrow(() -> new ChatRoomException("Voice message " + messageId + " is no longer available"));
+        return new VoiceClip(message.getVoice(), content);
+    }
+
+    @Scheduled(fixedDelayString = "${chat.voice.sweep-interval-ms:60000}")
+    public void expireUploads() {
+        long now = System.nanoTime();
+        uploads.values().removeIf(upload -> {
+            synchronized (upload) {
+                if (now - upload.lastActivity < uploadTimeoutNanos) {
+                    return false;
+                }
+                discard(upload);
+                return true;
+            }
+        });
+    }
+
+    private Upload getUpload(TokenClaims claims, String uploadId) throws InvalidUploadException {
+        Upload upload = uploads.get(uploadId);
+        if (upload == null || !upload.userId.equals(claims.id())) {
+            throw new InvalidUploadException("Unknown upload " + uploadId);
+        }
+        return upload;
+    }
+
+    private void checkParticipant(TokenClaims claims, String roomId) throws ChatRoomException {
+        RoomMembership room = roomMembershipCache.get(roomId).orElseThrow(() -> new ChatRoomException("Invalid chat room"));
+        if (!room.isParticipant(claims.id())) {
+            throw new ChatRoomException("User with id " + claims.id() + " is not a participant of this chat room");
+        }
+    }
+
+    private VoiceUploadResponse response(String uploadId, Upload upload) {
+        return new VoiceUploadResponse(uploadId, upload.received, upload.length, maxChunkBytes);
+    }
+
+    private static void discard(Upload upload) {
+        try {
+            Files.deleteIfExists(upload.file);
+        } catch (IOException e) {
+            log.warn("Could not delete staged upload " + upload.file, e);
+        }
+    }
+}
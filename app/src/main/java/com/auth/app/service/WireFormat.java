@@ -0,0 +1,54 @@
+package com.auth.app.service;
+
+import com.corundumstudio.socketio.SocketIOClient;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+
+/**
+ * Encoding of the events and acks a socket receives, chosen by the client with the {@code format} handshake
+ * parameter. CBOR payloads are sent as a single binary attachment, so they travel as binary websocket frames.
+ * <p>
+ * Each format has its own socket.io room per chat room, which lets a broadcast encode the payload once per
+ * format and still reach every node of a cluster through the normal room relay.
+ */
+public enum WireFormat {
+    JSON,
+    CBOR;
+
+    /**
+     * Client attribute holding the format negotiated at handshake.
+     */
+    public static final String SESSION_ATTRIBUTE = "wireFormat";
+
+    private static final ObjectMapper CBOR_MAPPER = new CBORMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    public static WireFormat fromHandshake(String format) {
+        return "cbor".equalsIgnoreCase(format) ? CBOR : JSON;
+    }
+
+    public static WireFormat of(SocketIOClient client) {
+        WireFormat format = client.get(SESSION_ATTRIBUTE);
+        return format != null ? format : JSON;
+    }
+
+    /**
+     * The socket.io room through which clients using this format receive a chat room's broadcasts.
+     */
+    public String room(String roomId) {
+        return this == JSON ? roomId : roomId + "#" + name().toLowerCase();
+    }
+
+    public Object encode(Object payload) {
+        if (this == JSON) {
+            return PreEncodedJson.of(payload);
+        }
+        try {
+            return CBOR_MAPPER.writeValueAsBytes(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Could not encode " + payload.getClass().getSimpleName(), e);
+        }
+    }
+}
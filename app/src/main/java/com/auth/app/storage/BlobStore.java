@@ -0,0 +1,26 @@
+package com.auth.app.storage;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+
+/**
+ * Out-of-line storage for binary message content such as voice messages.
+ */
+public interface BlobStore {
+
+    /**
+     * Stores everything the stream yields and returns the id to load it by.
+     */
+    String store(InputStream content, String contentType) throws IOException;
+
+    /**
+     * The stored content as a resource that knows its length and can be opened more than once, which is what
+     * ranged responses need.
+     */
+    Optional<Resource> load(String id);
+
+    void delete(String id);
+}
@@ -0,0 +1,248 @@
+package com.auth.app.storage;
+
+import com.auth.app.model.BlobReference;
+import com.mongodb.client.result.DeleteResult;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Blob store on the local filesystem keyed by the SHA-256 of the content, so the same file sent or forwarded
+ * many times is stored once. Every {@link #store} adds a reference and every {@link #delete} removes one; blobs
+ * left without references for longer than the grace period are garbage collected.
+ * <p>
+ * Cold reads are served from memory-mapped files, hot blobs from an off-heap LRU cache. Both hand out buffer
+ * views, so reading never copies the content onto the heap first.
+ */
+@Log4j2
+@Component
+@ConditionalOnProperty(name = "chat.attachments.store", havingValue = "local")
+public class ContentAddressedBlobStore implements BlobStore {
+
+    private static final Pattern ID = Pattern.compile("[0-9a-f]{64}");
+    private static final int LOCK_STRIPES = 64;
+
+    private final MongoTemplate mongoTemplate;
+    private final Path blobDir;
+    private final Path stagingDir;
+    private final long gcGraceMillis;
+    private final OffHeapBlobCache cache;
+    // Storing and collecting the same blob are serialized, so a blob cannot be deleted while it gains a reference
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public ContentAddressedBlobStore(MongoTemplate mongoTemplate,
+                                     @Value("${chat.attachments.local.dir:attachments}") Path root,
+                                     @Value("${chat.attachments.local.gc-grace-minutes:60}") long gcGraceMinutes,
+                                     @Value("${chat.attachments.local.cache-bytes:67108864}") long cacheBytes,
+                                     @Value("${chat.attachments.local.cache-max-entry-bytes:4194304}") long cacheMaxEntryBytes) throws IOException {
+        this.mongoTemplate = mongoTemplate;
+        this.blobDir = Files.createDirectories(root.resolve("blobs"));
+        this.stagingDir = Files.createDirectories(root.resolve("staging"));
+        this.gcGraceMillis = TimeUnit.MINUTES.toMillis(gcGraceMinutes);
+        this.cache = new OffHeapBlobCache(cacheBytes, cacheMaxEntryBytes);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    @Override
+    public String store(InputStream content, String contentType) throws IOException {
+        Path staged = Files.createTempFile(stagingDir, "blob", null);
+        try {
+            MessageDigest digest = sha256();
+            long length;
+            try (InputStream in = new DigestInputStream(content, digest);
+                 OutputStream out = Files.newOutputStream(staged)) {
+                length = in.transferTo(out);
+            }
+            String id = HexFormat.of().formatHex(digest.digest());
+
+            synchronized (lock(id)) {
+                mongoTemplate.upsert(byId(id), new Update()
+                        .inc("refs", 1)
+                        .setOnInsert("length", length)
+                        .currentDate("updatedAt"), BlobReference.class);
+                Path target = path(id);
+                if (!Files.exists(target)) {
+                    Files.createDirectories(target.getParent());
+                    Files.move(staged, target, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            return id;
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+    }
+
+    @Override
+    public Optional<Resource> load(String id) {
+        if (!ID.matcher(id).matches()) {
+            return Optional.empty();
+        }
+        Path file = path(id);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(new BlobResource(id, file, Files.size(file)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void delete(String id) {
+        if (ID.matcher(id).matches()) {
+            mongoTemplate.updateFirst(byId(id), new Update().inc("refs", -1).currentDate("updatedAt"), BlobReference.class);
+        }
+    }
+
+    /**
+     * Deletes blobs that have had no references for the whole grace period, and staging files left behind by
+     * uploads that never finished.
+     */
+    @Scheduled(fixedDelayString = "${chat.attachments.local.gc-interval-ms:3600000}")
+    public void collectGarbage() {
+        Date cutoff = new Date(System.currentTimeMillis() - gcGraceMillis);
+        Query unreferenced = new Query(Criteria.where("refs").lte(0).and("updatedAt").lt(cutoff));
+        unreferenced.fields().include("_id");
+        for (BlobReference reference : mongoTemplate.find(unreferenced, BlobReference.class)) {
+            String id = reference.getId();
+            synchronized (lock(id)) {
+                DeleteResult removed = mongoTemplate.remove(new Query(Criteria.where("_id").is(id)
+                        .and("refs").lte(0)
+                        .and("updatedAt").lt(cutoff)), BlobReference.class);
+                if (removed.getDeletedCount() > 0) {
+                    cache.remove(id);
+                    deleteQuietly(path(id));
+                }
+            }
+        }
+
+        FileTime stale = FileTime.from(Instant.ofEpochMilli(cutoff.getTime()));
+        try (Stream<Path> staged = Files.list(stagingDir)) {
+            staged.filter(file -> lastModified(file).compareTo(stale) < 0).forEach(ContentAddressedBlobStore::deleteQuietly);
+        } catch (IOException e) {
+            log.warn("Could not clean blob staging directory", e);
+        }
+    }
+
+    private ByteBuffer open(String id, Path file, long length) throws IOException {
+        Optional<ByteBuffer> cached = cache.get(id);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        return cache.accepts(length) ? cache.put(id, mapped) : mapped;
+    }
+
+    private Path path(String id) {
+        return blobDir.resolve(id.substring(0, 2)).resolve(id);
+    }
+
+    private Object lock(String id) {
+        return locks[Math.floorMod(id.hashCode(), LOCK_STRIPES)];
+    }
+
+    private static Query byId(String id) {
+        return new Query(Criteria.where("_id").is(id));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.from(Instant.now());
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete " + file, e);
+        }
+    }
+
+    private final class BlobResource extends AbstractResource {
+
+        private final String id;
+        private final Path file;
+        private final long length;
+
+        private BlobResource(String id, Path file, long length) {
+            this.id = id;
+            this.file = file;
+            this.length = length;
+        }
+
+        @Override
+        public String getDescription() {
+            return "blob " + id;
+        }
+
+        @Override
+        public boolean exists() {
+            return Files.exists(file);
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new ByteBufferInputStream(open(id, file, length));
+        }
+
+        @Override
+        public ReadableByteChannel readableChannel() throws IOException {
+            // Lets channel based consumers use FileChannel.transferTo
+            return FileChannel.open(file, StandardOpenOption.READ);
+        }
+    }
+}
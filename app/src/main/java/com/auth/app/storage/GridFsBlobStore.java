@@ -0,0 +1,52 @@
+package com.auth.app.storage;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import lombok.RequiredArgsConstructor;
+import org.bson.types.ObjectId;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.util.Optional;
+
+/**
+ * Keeps blobs in GridFS, chunked next to the rest of the data. Reads stream chunk by chunk, and skipping to an
+ * offset seeks to the right chunk instead of reading the ones before it.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.attachments.store", havingValue = "gridfs", matchIfMissing = true)
+@RequiredArgsConstructor
+public class GridFsBlobStore implements BlobStore {
+
+    private final GridFsTemplate gridFsTemplate;
+
+    @Override
+    public String store(InputStream content, String contentType) {
+        ObjectId id = new ObjectId();
+        return gridFsTemplate.store(content, id.toHexString(), contentType).toHexString();
+    }
+
+    @Override
+    public Optional<Resource> load(String id) {
+        if (!ObjectId.isValid(id)) {
+            return Optional.empty();
+        }
+        GridFSFile file = gridFsTemplate.findOne(byId(id));
+        return Optional.ofNullable(file).map(gridFsTemplate::getResource);
+    }
+
+    @Override
+    public void delete(String id) {
+        if (ObjectId.isValid(id)) {
+            gridFsTemplate.delete(byId(id));
+        }
+    }
+
+    private static Query byId(String id) {
+        return new Query(Criteria.where("_id").is(new ObjectId(id)));
+    }
+}
@@ -0,0 +1,61 @@
+package com.auth.app.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Least recently used copies of hot blobs in direct buffers, bounded by their total size. Callers get read-only
+ * views, so a cached blob is shared by every concurrent reader.
+ */
+class OffHeapBlobCache {
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    OffHeapBlobCache(long maxBytes, long maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+    }
+
+    synchronized Optional<ByteBuffer> get(String id) {
+        ByteBuffer buffer = entries.get(id);
+        return buffer != null ? Optional.of(buffer.asReadOnlyBuffer()) : Optional.empty();
+    }
+
+    boolean accepts(long length) {
+        return length > 0 && length <= maxEntryBytes;
+    }
+
+    /**
+     * Copies the content into off-heap memory and returns a view of the copy.
+     */
+    ByteBuffer put(String id, ByteBuffer content) {
+        ByteBuffer copy = ByteBuffer.allocateDirect(content.remaining());
+        copy.put(content.duplicate()).flip();
+        synchronized (this) {
+            ByteBuffer previous = entries.put(id, copy);
+            if (previous != null) {
+                bytes -= previous.capacity();
+            }
+            bytes += copy.capacity();
+            Iterator<Map.Entry<String, ByteBuffer>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().getValue().capacity();
+                eldest.remove();
+            }
+        }
+        return copy.asReadOnlyBuffer();
+    }
+
+    synchronized void remove(String id) {
+        ByteBuffer removed = entries.remove(id);
+        if (removed != null) {
+            bytes -= removed.capacity();
+        }
+    }
+}
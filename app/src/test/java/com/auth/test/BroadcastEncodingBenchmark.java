@@ -0,0 +1,74 @@
+package com.auth.test;
+
+import com.auth.app.model.Message;
+import com.auth.app.service.PreEncodedJson;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares encoding a room broadcast for every recipient with encoding the message once. Only the encoded output
+ * is asserted, timings are logged for comparison. Not picked up by the default test run, use
+ * {@code mvn test -Dtest=BroadcastEncodingBenchmark}.
+ */
+@Log4j2
+class BroadcastEncodingBenchmark {
+
+	private static final int RECIPIENTS = 1_000;
+	private static final int ROUNDS = 200;
+
+	// Same settings as the socket server's mapper
+	private final ObjectMapper mapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+	private final Message message = Message.builder()
+			.messageId("6560d1c2a4f0b3e1c2d3e4f5")
+			.roomId("6560d1c2a4f0b3e1c2d3e4f6")
+			.seq(42)
+			.sender("someone@example.com")
+			.text("The quick brown fox jumps over the lazy dog. ".repeat(4))
+			.sentAt(new Date())
+			.build();
+
+	@Test
+	void encodeOnceVersusPerRecipient() throws IOException {
+		assertThat(encode(PreEncodedJson.of(message))).isEqualTo(encode(message));
+
+		// Warm up both paths before measuring
+		broadcast(() -> message);
+		broadcast(() -> PreEncodedJson.of(message));
+
+		long perRecipientNanos = broadcast(() -> message);
+		long encodeOnceNanos = broadcast(() -> PreEncodedJson.of(message));
+
+		log.info("{} recipients x {} broadcasts: per recipient {} ms, encoded once {} ms ({}x)",
+				RECIPIENTS, ROUNDS, perRecipientNanos / 1_000_000, encodeOnceNanos / 1_000_000,
+				String.format("%.1f", (double) perRecipientNanos / encodeOnceNanos));
+	}
+
+	private long broadcast(Supplier<Object> argumentPerBroadcast) throws IOException {
+		long start = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			// Every recipient's packet is encoded separately, only the argument can be shared
+			Object argument = argumentPerBroadcast.get();
+			for (int recipient = 0; recipient < RECIPIENTS; recipient++) {
+				encode(argument);
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	private byte[] encode(Object argument) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+		mapper.writeValue(out, List.of("newMessage", argument));
+		return out.toByteArray();
+	}
+}
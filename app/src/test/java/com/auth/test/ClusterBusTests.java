@@ -0,0 +1,137 @@
+package com.auth.test;
+
+import com.auth.app.cluster.ClusterBus;
+import com.auth.app.cluster.InProcessClusterTransport;
+import com.auth.app.DTO.PresenceUpdate;
+import com.auth.app.model.Attachment;
+import com.auth.app.model.Message;
+import com.auth.app.service.PreEncodedJson;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ClusterBusTests {
+
+	@Test
+	void deliversToEveryOtherNodeExactlyOnce() {
+		InProcessClusterTransport.Hub hub = new InProcessClusterTransport.Hub();
+		ClusterBus first = new ClusterBus(Optional.of(new InProcessClusterTransport(hub)));
+		ClusterBus second = new ClusterBus(Optional.of(new InProcessClusterTransport(hub)));
+		ClusterBus third = new ClusterBus(Optional.of(new InProcessClusterTransport(hub)));
+		List<Message> atFirst = new CopyOnWriteArrayList<>();
+		List<Message> atSecond = new CopyOnWriteArrayList<>();
+		List<Message> atThird = new CopyOnWriteArrayList<>();
+		first.subscribe("messages", Message.class, atFirst::add);
+		second.subscribe("messages", Message.class, atSecond::add);
+		third.subscribe("messages", Message.class, atThird::add);
+
+		Message message = Message.builder().messageId("m1").roomId("r1").seq(1).text("hello").build();
+		first.publish("messages", message);
+
+		assertThat(atFirst).isEmpty();
+		assertThat(atSecond).containsExactly(message);
+		assertThat(atThird).containsExactly(message);
+	}
+
+	@Test
+	void ignoresPayloadsOfAnotherType() {
+		InProcessClusterTransport.Hub hub = new InProcessClusterTransport.Hub();
+		ClusterBus first = new ClusterBus(Optional.of(new InProcessClusterTransport(hub)));
+		ClusterBus second = new ClusterBus(Optional.of(new InProcessClusterTransport(hub)));
+		List<Message> received = new CopyOnWriteArrayList<>();
+		second.subscribe("messages", Message.class, received::add);
+
+		first.publish("messages", "not a message");
+
+		assertThat(received).isEmpty();
+	}
+
+	@Test
+	void standaloneBusPublishesNothing() {
+		ClusterBus bus = new ClusterBus(Optional.empty());
+
+		assertThat(bus.isClustered()).isFalse();
+		bus.publish("messages", "ignored");
+	}
+
+	@Test
+	void readsEveryKindOfPublishedPayload() {
+		InProcessClusterTransport.Hub hub = new InProcessClusterTransport.Hub();
+		ClusterBus first = new ClusterBus(Optional.of(new InProcessClusterTransport(hub)));
+		ClusterBus second = new ClusterBus(Optional.of(new InProcessClusterTransport(hub)));
+		List<Object> received = new CopyOnWriteArrayList<>();
+		second.subscribe("events", Object.class, received::add);
+
+		Message message = Message.builder().messageId("m1").roomId("r1").seq(1).text("hello").sentAt(new Date())
+				.voice(new Attachment("blob", "audio/webm", 3)).build();
+		PresenceUpdate presence = new PresenceUpdate("r1", Stream.of("a", "b").toList(), List.of());
+		ArrayList<Object> packetData = new ArrayList<>(Arrays.asList(PreEncodedJson.of(message), new byte[]{1, 2, 3}));
+		first.publish("events", message);
+		first.publish("events", presence);
+		first.publish("events", "r1");
+		first.publish("events", packetData);
+
+		assertThat(received).hasSize(4);
+		assertThat(received.get(0)).isEqualTo(message);
+		assertThat(received.get(1)).isEqualTo(presence);
+		assertThat(received.get(2)).isEqualTo("r1");
+		assertThat(received.get(3).toString()).contains("\"messageId\":\"m1\"");
+	}
+
+	@Test
+	void refusesClassesOutsideTheKnownEvents() throws Exception {
+		InProcessClusterTransport.Hub hub = new InProcessClusterTransport.Hub();
+		InProcessClusterTransport attacker = new InProcessClusterTransport(hub);
+		ClusterBus bus = new ClusterBus(Optional.of(new InProcessClusterTransport(hub)));
+		List<Object> received = new CopyOnWriteArrayList<>();
+		bus.subscribe("messages", Object.class, received::add);
+
+		assertThatThrownBy(() -> attacker.publish("messages", serialize(new HashMap<>(Map.of("key", "value")))))
+				.isInstanceOf(IllegalStateException.class)
+				.hasRootCauseInstanceOf(InvalidClassException.class);
+		assertThat(received).isEmpty();
+	}
+
+	@Test
+	void refusesObjectGraphsNestedTooDeeply() throws Exception {
+		InProcessClusterTransport.Hub hub = new InProcessClusterTransport.Hub();
+		InProcessClusterTransport attacker = new InProcessClusterTransport(hub);
+		ClusterBus bus = new ClusterBus(Optional.of(new InProcessClusterTransport(hub)));
+		bus.subscribe("messages", Object.class, payload -> {
+		});
+		List<Object> nested = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			List<Object> outer = new ArrayList<>();
+			outer.add(nested);
+			nested = outer;
+		}
+		byte[] payload = serialize(nested);
+
+		assertThatThrownBy(() -> attacker.publish("messages", payload))
+				.isInstanceOf(IllegalStateException.class)
+				.hasRootCauseInstanceOf(InvalidClassException.class);
+	}
+
+	private static byte[] serialize(Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(value);
+		}
+		return bytes.toByteArray();
+	}
+}
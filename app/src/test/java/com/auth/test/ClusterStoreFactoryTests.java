@@ -0,0 +1,95 @@
+package com.auth.test;
+
+import com.auth.app.cluster.ClusterBus;
+import com.auth.app.cluster.ClusterStoreFactory;
+import com.auth.app.cluster.InProcessClusterTransport;
+import com.corundumstudio.socketio.protocol.Packet;
+import com.corundumstudio.socketio.protocol.PacketType;
+import com.corundumstudio.socketio.store.pubsub.DispatchMessage;
+import com.corundumstudio.socketio.store.pubsub.JoinLeaveMessage;
+import com.corundumstudio.socketio.store.pubsub.PubSubStore;
+import com.corundumstudio.socketio.store.pubsub.PubSubType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClusterStoreFactoryTests {
+
+	private PubSubStore first;
+	private PubSubStore second;
+
+	@BeforeEach
+	void setUp() {
+		InProcessClusterTransport.Hub hub = new InProcessClusterTransport.Hub();
+		first = new ClusterStoreFactory(new ClusterBus(Optional.of(new InProcessClusterTransport(hub)))).pubSubStore();
+		second = new ClusterStoreFactory(new ClusterBus(Optional.of(new InProcessClusterTransport(hub)))).pubSubStore();
+	}
+
+	@Test
+	void relaysDispatchToTheOtherNodeOnce() {
+		List<DispatchMessage> atFirst = new CopyOnWriteArrayList<>();
+		List<DispatchMessage> atSecond = new CopyOnWriteArrayList<>();
+		first.subscribe(PubSubType.DISPATCH, atFirst::add, DispatchMessage.class);
+		second.subscribe(PubSubType.DISPATCH, atSecond::add, DispatchMessage.class);
+
+		Packet packet = new Packet(PacketType.MESSAGE);
+		packet.setSubType(PacketType.EVENT);
+		packet.setName("newMessage");
+		packet.setData(new ArrayList<>(List.of("hello")));
+		first.publish(PubSubType.DISPATCH, new DispatchMessage("room", packet, ""));
+
+		assertThat(atFirst).isEmpty();
+		assertThat(atSecond).hasSize(1);
+		DispatchMessage received = atSecond.get(0);
+		assertThat(received.getRoom()).isEqualTo("room");
+		assertThat(received.getNamespace()).isEmpty();
+		assertThat(received.getPacket().getName()).isEqualTo("newMessage");
+		assertThat(received.getPacket().getSubType()).isEqualTo(PacketType.EVENT);
+		List<Object> data = received.getPacket().getData();
+		assertThat(data).containsExactly("hello");
+	}
+
+	@Test
+	void relaysJoinAndLeaveToTheOtherNodeOnce() {
+		List<JoinLeaveMessage> joinsAtFirst = new CopyOnWriteArrayList<>();
+		List<JoinLeaveMessage> joinsAtSecond = new CopyOnWriteArrayList<>();
+		List<JoinLeaveMessage> leavesAtFirst = new CopyOnWriteArrayList<>();
+		List<JoinLeaveMessage> leavesAtSecond = new CopyOnWriteArrayList<>();
+		first.subscribe(PubSubType.JOIN, joinsAtFirst::add, JoinLeaveMessage.class);
+		second.subscribe(PubSubType.JOIN, joinsAtSecond::add, JoinLeaveMessage.class);
+		first.subscribe(PubSubType.LEAVE, leavesAtFirst::add, JoinLeaveMessage.class);
+		second.subscribe(PubSubType.LEAVE, leavesAtSecond::add, JoinLeaveMessage.class);
+
+		UUID sessionId = UUID.randomUUID();
+		first.publish(PubSubType.JOIN, new JoinLeaveMessage(sessionId, "room", ""));
+		first.publish(PubSubType.LEAVE, new JoinLeaveMessage(sessionId, "room", ""));
+
+		assertThat(joinsAtFirst).isEmpty();
+		assertThat(leavesAtFirst).isEmpty();
+		assertThat(joinsAtSecond).singleElement()
+				.satisfies(join -> assertThat(join.getSessionId()).isEqualTo(sessionId))
+				.satisfies(join -> assertThat(join.getRoom()).isEqualTo("room"));
+		assertThat(leavesAtSecond).singleElement()
+				.satisfies(leave -> assertThat(leave.getSessionId()).isEqualTo(sessionId));
+	}
+
+	@Test
+	void keepsEventTypesOnTheirOwnChannels() {
+		List<JoinLeaveMessage> joins = new CopyOnWriteArrayList<>();
+		List<JoinLeaveMessage> leaves = new CopyOnWriteArrayList<>();
+		second.subscribe(PubSubType.JOIN, joins::add, JoinLeaveMessage.class);
+		second.subscribe(PubSubType.LEAVE, leaves::add, JoinLeaveMessage.class);
+
+		first.publish(PubSubType.LEAVE, new JoinLeaveMessage(UUID.randomUUID(), "room", ""));
+
+		assertThat(joins).isEmpty();
+		assertThat(leaves).hasSize(1);
+	}
+}
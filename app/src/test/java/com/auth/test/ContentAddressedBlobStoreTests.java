@@ -0,0 +1,180 @@
+package com.auth.test;
+
+import com.auth.app.model.BlobReference;
+import com.auth.app.storage.ContentAddressedBlobStore;
+import com.mongodb.client.result.DeleteResult;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ContentAddressedBlobStoreTests {
+
+	private final Map<String, BlobReference> references = new ConcurrentHashMap<>();
+	private MongoTemplate mongoTemplate;
+	private Path root;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		root = Files.createTempDirectory("blobs");
+		// Reference counts are kept in a map, following the updates the store issues
+		mongoTemplate = mock(MongoTemplate.class);
+		when(mongoTemplate.upsert(any(Query.class), any(Update.class), eq(BlobReference.class))).thenAnswer(invocation -> {
+			references.compute(id(invocation.getArgument(0)), (id, reference) -> reference == null
+					? BlobReference.builder().id(id).refs(1).updatedAt(new Date()).build()
+					: BlobReference.builder().id(id).refs(reference.getRefs() + 1).updatedAt(new Date()).build());
+			return null;
+		});
+		when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(BlobReference.class))).thenAnswer(invocation -> {
+			references.computeIfPresent(id(invocation.getArgument(0)), (id, reference) ->
+					BlobReference.builder().id(id).refs(reference.getRefs() - 1).updatedAt(new Date()).build());
+			return null;
+		});
+		when(mongoTemplate.find(any(Query.class), eq(BlobReference.class))).thenAnswer(invocation -> {
+			Date cutoff = cutoff(invocation.getArgument(0));
+			return references.values().stream().filter(reference -> collectable(reference, cutoff)).toList();
+		});
+		when(mongoTemplate.remove(any(Query.class), eq(BlobReference.class))).thenAnswer(invocation -> {
+			Query query = invocation.getArgument(0);
+			BlobReference reference = references.get(id(query));
+			if (reference == null || !collectable(reference, cutoff(query))) {
+				return DeleteResult.acknowledged(0);
+			}
+			references.remove(reference.getId());
+			return DeleteResult.acknowledged(1);
+		});
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(root)) {
+			for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	@Test
+	void sameContentIsStoredOnceWithOneReferencePerStore() throws IOException {
+		ContentAddressedBlobStore store = store();
+
+		String first = store.store(content("voice"), "audio/webm");
+		String second = store.store(content("voice"), "audio/webm");
+
+		assertThat(second).isEqualTo(first);
+		assertThat(references.get(first).getRefs()).isEqualTo(2);
+		assertThat(blobFiles()).hasSize(1);
+		try (InputStream in = store.load(first).orElseThrow().getInputStream()) {
+			assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("voice");
+		}
+	}
+
+	@Test
+	void blobStaysWhileAnyReferenceRemains() throws IOException {
+		ContentAddressedBlobStore store = store();
+		String id = store.store(content("voice"), "audio/webm");
+		store.store(content("voice"), "audio/webm");
+
+		store.delete(id);
+		age(id);
+		store.collectGarbage();
+
+		assertThat(references.get(id).getRefs()).isEqualTo(1);
+		assertThat(store.load(id)).isPresent();
+	}
+
+	@Test
+	void unreferencedBlobSurvivesTheGracePeriod() throws IOException {
+		ContentAddressedBlobStore store = store();
+		String id = store.store(content("voice"), "audio/webm");
+
+		store.delete(id);
+		store.collectGarbage();
+
+		assertThat(references).containsKey(id);
+		assertThat(store.load(id)).isPresent();
+	}
+
+	@Test
+	void unreferencedBlobIsCollectedAfterTheGracePeriod() throws IOException {
+		ContentAddressedBlobStore store = store();
+		String id = store.store(content("voice"), "audio/webm");
+
+		store.delete(id);
+		age(id);
+		store.collectGarbage();
+
+		assertThat(references).doesNotContainKey(id);
+		assertThat(store.load(id)).isEmpty();
+		assertThat(blobFiles()).isEmpty();
+	}
+
+	@Test
+	void storingAgainWithinTheGracePeriodRevivesTheBlob() throws IOException {
+		ContentAddressedBlobStore store = store();
+		String id = store.store(content("voice"), "audio/webm");
+		store.delete(id);
+
+		store.store(content("voice"), "audio/webm");
+		age(id);
+		store.collectGarbage();
+
+		assertThat(store.load(id)).isPresent();
+	}
+
+	private ContentAddressedBlobStore store() throws IOException {
+		// One hour grace period, a small off-heap cache
+		return new ContentAddressedBlobStore(mongoTemplate, root, 60, 1 << 20, 1 << 16);
+	}
+
+	private void age(String id) {
+		// Moves the last reference change to before the grace period
+		references.computeIfPresent(id, (key, reference) -> BlobReference.builder().id(key).refs(reference.getRefs())
+				.updatedAt(new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2))).build());
+	}
+
+	private List<Path> blobFiles() throws IOException {
+		try (Stream<Path> files = Files.walk(root.resolve("blobs"))) {
+			return files.filter(Files::isRegularFile).toList();
+		}
+	}
+
+	private static boolean collectable(BlobReference reference, Date cutoff) {
+		return reference.getRefs() <= 0 && reference.getUpdatedAt().before(cutoff);
+	}
+
+	private static String id(Query query) {
+		return query.getQueryObject().getString("_id");
+	}
+
+	private static Date cutoff(Query query) {
+		return query.getQueryObject().get("updatedAt", Document.class).getDate("$lt");
+	}
+
+	private static InputStream content(String text) {
+		return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,98 @@
+package com.auth.test;
+
+import com.auth.app.model.OutboxEmail;
+import com.auth.app.service.EmailOutbox;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EmailOutboxTests {
+
+	private SmtpStandIn smtp;
+	private MongoTemplate mongoTemplate;
+	private EmailOutbox outbox;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		smtp = new SmtpStandIn();
+		JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+		mailSender.setHost("127.0.0.1");
+		mailSender.setPort(smtp.port());
+		mongoTemplate = mock(MongoTemplate.class);
+		// No worker threads, the tests drain the outbox themselves
+		outbox = new EmailOutbox(mongoTemplate, mailSender, new SimpleMeterRegistry(), 0, 50, 3, 60_000, 1_000, 60_000, 1_000);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		smtp.close();
+	}
+
+	@Test
+	void sendsABatchOverOneConnectionAndDeletesDeliveredEmails() {
+		List<OutboxEmail> batch = List.of(email("1", "alice@example.com", 1), email("2", "bob@example.com", 1));
+		when(mongoTemplate.find(any(Query.class), eq(OutboxEmail.class))).thenReturn(batch);
+
+		assertThat(outbox.drain()).isEqualTo(2);
+
+		assertThat(smtp.received()).extracting(received -> received.to().get(0))
+				.containsExactly("alice@example.com", "bob@example.com");
+		assertThat(smtp.connections()).isEqualTo(1);
+		ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+		verify(mongoTemplate).remove(removed.capture(), eq(OutboxEmail.class));
+		assertThat(removed.getValue().getQueryObject().toJson()).contains("\"1\"", "\"2\"");
+		verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(OutboxEmail.class));
+	}
+
+	@Test
+	void retriesRejectedEmailsWithBackoffAndGivesUpAfterTheLastAttempt() {
+		List<OutboxEmail> batch = List.of(email("1", "alice@example.com", 1), email("2", "reject@example.com", 1),
+				email("3", "reject-too@example.com", 3));
+		when(mongoTemplate.find(any(Query.class), eq(OutboxEmail.class))).thenReturn(batch);
+
+		outbox.drain();
+
+		assertThat(smtp.received()).extracting(received -> received.to().get(0)).containsExactly("alice@example.com");
+		ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+		ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+		verify(mongoTemplate, times(2)).updateFirst(queries.capture(), updates.capture(), eq(OutboxEmail.class));
+		assertThat(queries.getAllValues().get(0).getQueryObject().get("id")).isEqualTo("2");
+		assertThat(updates.getAllValues().get(0).getUpdateObject().get("$set", Document.class))
+				.containsKey("nextAttemptAt").doesNotContainKey("status");
+		assertThat(queries.getAllValues().get(1).getQueryObject().get("id")).isEqualTo("3");
+		assertThat(updates.getAllValues().get(1).getUpdateObject().get("$set", Document.class).get("status"))
+				.isEqualTo(OutboxEmail.Status.FAILED);
+	}
+
+	private static OutboxEmail email(String id, String to, int attempts) {
+		return OutboxEmail.builder()
+				.id(id)
+				.from("noreply@example.com")
+				.to(to)
+				.subject("Subject " + id)
+				.text("Body " + id)
+				.status(OutboxEmail.Status.PENDING)
+				.attempts(attempts)
+				.nextAttemptAt(new Date())
+				.build();
+	}
+}
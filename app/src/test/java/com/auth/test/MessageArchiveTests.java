@@ -0,0 +1,254 @@
+package com.auth.test;
+
+import com.auth.app.jwt.service.TokenClaims;
+import com.auth.app.model.ArchiveSegment;
+import com.auth.app.model.Message;
+import com.auth.app.model.RoomMembership;
+import com.auth.app.model.user.repository.UserRepository;
+import com.auth.app.model.user.service.UserProfileCache;
+import com.auth.app.model.user.service.UserService;
+import com.auth.app.repository.ArchiveSegmentRepository;
+import com.auth.app.repository.ChatRoomRepository;
+import com.auth.app.repository.MessageRepository;
+import com.auth.app.service.MessageArchive;
+import com.auth.app.service.MessageWriter;
+import com.auth.app.service.ReadReceiptService;
+import com.auth.app.service.RecentMessageCache;
+import com.auth.app.service.RetentionService;
+import com.auth.app.service.RoomMembershipCache;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageArchiveTests {
+
+	private static final TokenClaims CLAIMS = new TokenClaims("token", "user", "user@example.com", "user", new Date());
+
+	// Segments by id, which starts with the room and the first message id, so map order is archive order
+	private final Map<String, ArchiveSegment> segments = new TreeMap<>();
+	private ArchiveSegmentRepository archiveSegmentRepository;
+	private MessageArchive archive;
+
+	@BeforeEach
+	void setUp() {
+		archiveSegmentRepository = mock(ArchiveSegmentRepository.class);
+		when(archiveSegmentRepository.save(any(ArchiveSegment.class))).thenAnswer(invocation -> {
+			ArchiveSegment segment = invocation.getArgument(0);
+			segments.put(segment.getId(), segment);
+			return segment;
+		});
+		when(archiveSegmentRepository.existsByRoomId(anyString()))
+				.thenAnswer(invocation -> !select(invocation.getArgument(0), segment -> true).isEmpty());
+		when(archiveSegmentRepository.findByRoomId(anyString(), any(Pageable.class))).thenAnswer(invocation ->
+				newestFirst(select(invocation.getArgument(0), segment -> true), invocation.getArgument(1)));
+		when(archiveSegmentRepository.findByRoomIdAndFirstMessageIdLessThan(anyString(), anyString(), any(Pageable.class)))
+				.thenAnswer(invocation -> {
+					String bound = invocation.getArgument(1);
+					return newestFirst(select(invocation.getArgument(0), segment -> segment.getFirstMessageId().compareTo(bound) < 0),
+							invocation.getArgument(2));
+				});
+		when(archiveSegmentRepository.findByRoomIdAndLastMessageIdGreaterThan(anyString(), anyString(), any(Pageable.class)))
+				.thenAnswer(invocation -> {
+					String bound = invocation.getArgument(1);
+					return oldestFirst(select(invocation.getArgument(0), segment -> segment.getLastMessageId().compareTo(bound) > 0),
+							invocation.getArgument(2));
+				});
+		when(archiveSegmentRepository.findByRoomIdAndLastSeqGreaterThan(anyString(), anyLong(), any(Pageable.class)))
+				.thenAnswer(invocation -> {
+					long bound = invocation.getArgument(1);
+					return oldestFirst(select(invocation.getArgument(0), segment -> segment.getLastSeq() > bound),
+							invocation.getArgument(2));
+				});
+		when(archiveSegmentRepository.findFirstByRoomIdAndFirstMessageIdLessThanEqualOrderByFirstMessageIdDesc(anyString(), anyString()))
+				.thenAnswer(invocation -> {
+					String bound = invocation.getArgument(1);
+					List<ArchiveSegment> covering = select(invocation.getArgument(0), segment -> segment.getFirstMessageId().compareTo(bound) <= 0);
+					return covering.isEmpty() ? Optional.empty() : Optional.of(covering.get(covering.size() - 1));
+				});
+		when(archiveSegmentRepository.findByRoomIdOrderByFirstMessageIdAsc(anyString()))
+				.thenAnswer(invocation -> select(invocation.getArgument(0), segment -> true).stream());
+
+		MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+		converter.afterPropertiesSet();
+		// Small segments, so a handful of messages spans several of them
+		archive = new MessageArchive(archiveSegmentRepository, converter, 256, 6, 4);
+	}
+
+	@Test
+	void archivedMessagesReadBackUnchanged() {
+		List<Message> messages = messages("room", 1, 10);
+
+		archive.write("room", messages);
+
+		assertThat(segments).hasSizeGreaterThan(1);
+		List<Message> read = new ArrayList<>();
+		archive.forEach("room", read::addAll);
+		assertThat(read).isEqualTo(messages);
+		assertThat(archive.find("room", messages.get(4).getMessageId())).contains(messages.get(4));
+		assertThat(archive.contains("room")).isTrue();
+		assertThat(archive.contains("other")).isFalse();
+	}
+
+	@Test
+	void rangesCrossSegmentBoundaries() {
+		List<Message> messages = messages("room", 1, 10);
+		archive.write("room", messages);
+
+		assertThat(archive.before("room", null, 3)).isEqualTo(messages.subList(7, 10));
+		assertThat(archive.before("room", messages.get(6).getMessageId(), 4)).isEqualTo(messages.subList(2, 6));
+		assertThat(archive.before("room", messages.get(0).getMessageId(), 4)).isEmpty();
+		assertThat(archive.after("room", messages.get(1).getMessageId(), 5)).isEqualTo(messages.subList(2, 7));
+		assertThat(archive.since("room", 8, 10)).isEqualTo(messages.subList(8, 10));
+	}
+
+	@Test
+	void rewritingTheSameMessagesReplacesTheirSegments() {
+		List<Message> messages = messages("room", 1, 10);
+		archive.write("room", messages);
+		int written = segments.size();
+
+		archive.write("room", messages);
+
+		assertThat(segments).hasSize(written);
+	}
+
+	@Test
+	void retentionWritesTheArchiveBeforeDeletingMessages() {
+		List<Message> old = messages("room", 1, 3);
+		MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+		MessageRepository messageRepository = mock(MessageRepository.class);
+		when(mongoTemplate.findDistinct(any(Query.class), eq("roomId"), eq(Message.class), eq(String.class)))
+				.thenReturn(List.of("room"));
+		when(messageRepository.findByRoomIdAndMessageIdLessThan(eq("room"), anyString(), any(Pageable.class)))
+				.thenReturn(old, List.of());
+
+		new RetentionService(mongoTemplate, messageRepository, archive, 90, 2000, 100, 200_000, 0, 1).archiveOldMessages();
+
+		InOrder order = inOrder(archiveSegmentRepository, messageRepository);
+		order.verify(archiveSegmentRepository, atLeastOnce()).save(any(ArchiveSegment.class));
+		order.verify(messageRepository).deleteAllById(old.stream().map(Message::getMessageId).toList());
+		List<Message> read = new ArrayList<>();
+		archive.forEach("room", read::addAll);
+		assertThat(read).isEqualTo(old);
+	}
+
+	@Test
+	void retentionStopsAtThePerRunCaps() {
+		MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+		MessageRepository messageRepository = mock(MessageRepository.class);
+		when(mongoTemplate.findDistinct(any(Query.class), eq("roomId"), eq(Message.class), eq(String.class)))
+				.thenReturn(List.of("a", "b", "c"));
+		when(messageRepository.findByRoomIdAndMessageIdLessThan(eq("a"), anyString(), any(Pageable.class)))
+				.thenReturn(messages("a", 1, 2), messages("a", 3, 4), messages("a", 5, 6));
+		when(messageRepository.findByRoomIdAndMessageIdLessThan(eq("b"), anyString(), any(Pageable.class)))
+				.thenReturn(messages("b", 1, 2), List.of());
+
+		// Three rooms but only two per run
+		new RetentionService(mongoTemplate, messageRepository, archive, 90, 2, 2, 200_000, 0, 1).archiveOldMessages();
+
+		verify(messageRepository, never()).findByRoomIdAndMessageIdLessThan(eq("c"), anyString(), any(Pageable.class));
+
+		// Four messages per run, room a uses all of them
+		clearInvocations(messageRepository);
+		when(messageRepository.findByRoomIdAndMessageIdLessThan(eq("a"), anyString(), any(Pageable.class)))
+				.thenReturn(messages("a", 1, 2), messages("a", 3, 4), messages("a", 5, 6));
+		new RetentionService(mongoTemplate, messageRepository, archive, 90, 2, 100, 4, 0, 1).archiveOldMessages();
+
+		verify(messageRepository, times(2)).findByRoomIdAndMessageIdLessThan(eq("a"), anyString(), any(Pageable.class));
+		verify(messageRepository, never()).findByRoomIdAndMessageIdLessThan(eq("b"), anyString(), any(Pageable.class));
+	}
+
+	@Test
+	void historyReadsFallBackToTheArchive() throws Exception {
+		List<Message> archived = messages("room", 1, 6);
+		List<Message> hot = messages("room", 7, 8);
+		archive.write("room", archived);
+		MessageRepository messageRepository = mock(MessageRepository.class);
+		when(messageRepository.findByRoomId(eq("room"), any(Pageable.class))).thenReturn(List.of(hot.get(1), hot.get(0)));
+		when(messageRepository.findByRoomIdOrderByMessageIdAsc("room")).thenReturn(hot);
+		RecentMessageCache recentMessageCache = mock(RecentMessageCache.class);
+		when(recentMessageCache.latest(anyString(), anyInt())).thenReturn(Optional.empty());
+		when(recentMessageCache.since(anyString(), anyLong(), anyInt())).thenReturn(Optional.empty());
+		when(recentMessageCache.all(anyString())).thenReturn(Optional.empty());
+		RoomMembershipCache roomMembershipCache = mock(RoomMembershipCache.class);
+		when(roomMembershipCache.get("room"))
+				.thenReturn(Optional.of(new RoomMembership("room", Set.of("user"), Set.of("user"), "user")));
+		MessageWriter messageWriter = mock(MessageWriter.class);
+		when(messageWriter.unpersisted(anyString(), anyLong())).thenReturn(List.of());
+		UserService userService = new UserService(mock(UserRepository.class), mock(ChatRoomRepository.class), messageRepository,
+				messageWriter, archive, recentMessageCache, roomMembershipCache,
+				mock(UserProfileCache.class), mock(ReadReceiptService.class), mock(PasswordEncoder.class));
+
+		assertThat(userService.getMessages(CLAIMS, "room", null, null, 4))
+				.isEqualTo(List.of(archived.get(4), archived.get(5), hot.get(0), hot.get(1)));
+		assertThat(userService.getMessagesSince(CLAIMS, "room", 4))
+				.extracting(Message::getSeq).containsExactly(5L, 6L);
+		assertThat(userService.getAllMessages(CLAIMS, "room")).hasSize(8);
+	}
+
+	private List<ArchiveSegment> select(String roomId, Predicate<ArchiveSegment> filter) {
+		return segments.values().stream()
+				.filter(segment -> segment.getRoomId().equals(roomId))
+				.filter(filter)
+				.toList();
+	}
+
+	private static List<ArchiveSegment> newestFirst(List<ArchiveSegment> selected, Pageable pageable) {
+		return selected.stream()
+				.sorted(Comparator.comparing(ArchiveSegment::getFirstMessageId).reversed())
+				.limit(pageable.getPageSize())
+				.toList();
+	}
+
+	private static List<ArchiveSegment> oldestFirst(List<ArchiveSegment> selected, Pageable pageable) {
+		return selected.stream().limit(pageable.getPageSize()).toList();
+	}
+
+	private static List<Message> messages(String roomId, int from, int to) {
+		Date start = new Date(1_600_000_000_000L);
+		return IntStream.rangeClosed(from, to)
+				.mapToObj(seq -> Message.builder()
+						.messageId(new ObjectId(new Date(start.getTime() + seq * 1000L), 0).toHexString())
+						.roomId(roomId)
+						.seq(seq)
+						.sender("user@example.com")
+						.text("message " + seq)
+						.sentAt(new Date(start.getTime() + seq * 1000L))
+						.build())
+				.toList();
+	}
+}
@@ -0,0 +1,146 @@
+package com.auth.test;
+
+import com.auth.app.exceptions.ChatRoomException;
+import com.auth.app.jwt.service.TokenClaims;
+import com.auth.app.model.Message;
+import com.auth.app.model.RoomMembership;
+import com.auth.app.model.user.repository.UserRepository;
+import com.auth.app.model.user.service.UserProfileCache;
+import com.auth.app.model.user.service.UserService;
+import com.auth.app.repository.ChatRoomRepository;
+import com.auth.app.repository.MessageRepository;
+import com.auth.app.service.MessageArchive;
+import com.auth.app.service.MessageWriter;
+import com.auth.app.service.ReadReceiptService;
+import com.auth.app.service.RecentMessageCache;
+import com.auth.app.service.RoomMembershipCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatcher;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessagePagingTests {
+
+	private static final TokenClaims CLAIMS = new TokenClaims("token", "user", "user@example.com", "user", new Date());
+
+	private MessageRepository messageRepository;
+	private MessageArchive messageArchive;
+	private RecentMessageCache recentMessageCache;
+	private UserService userService;
+
+	@BeforeEach
+	void setUp() {
+		messageRepository = mock(MessageRepository.class);
+		messageArchive = mock(MessageArchive.class);
+		recentMessageCache = mock(RecentMessageCache.class);
+		RoomMembershipCache roomMembershipCache = mock(RoomMembershipCache.class);
+		when(roomMembershipCache.get("room"))
+				.thenReturn(Optional.of(new RoomMembership("room", Set.of("user"), Set.of("user"), "user")));
+		when(recentMessageCache.latest(any(), anyInt())).thenReturn(Optional.empty());
+		when(recentMessageCache.before(any(), any(), anyInt())).thenReturn(Optional.empty());
+		when(recentMessageCache.after(any(), any(), anyInt())).thenReturn(Optional.empty());
+		userService = new UserService(mock(UserRepository.class), mock(ChatRoomRepository.class), messageRepository,
+				mock(MessageWriter.class), messageArchive, recentMessageCache, roomMembershipCache,
+				mock(UserProfileCache.class), mock(ReadReceiptService.class), mock(PasswordEncoder.class));
+	}
+
+	@Test
+	void latestPageIsReadNewestFirstAndReturnedInOrder() throws Exception {
+		when(messageRepository.findByRoomId(eq("room"), any(Pageable.class))).thenReturn(List.of(message(3), message(2)));
+
+		List<Message> page = userService.getMessages(CLAIMS, "room", null, null, 2);
+
+		assertThat(page).extracting(Message::getMessageId).containsExactly(id(2), id(3));
+		verify(messageRepository).findByRoomId(eq("room"), argThat(newestFirst(2)));
+		verify(messageArchive, never()).before(any(), any(), anyInt());
+	}
+
+	@Test
+	void beforeCursorExcludesTheCursorMessage() throws Exception {
+		when(messageRepository.findByRoomIdAndMessageIdLessThan(eq("room"), eq(id(3)), any(Pageable.class)))
+				.thenReturn(List.of(message(2), message(1)));
+
+		List<Message> page = userService.getMessages(CLAIMS, "room", id(3), null, 2);
+
+		assertThat(page).extracting(Message::getMessageId).containsExactly(id(1), id(2));
+		verify(messageRepository).findByRoomIdAndMessageIdLessThan(eq("room"), eq(id(3)), argThat(newestFirst(2)));
+	}
+
+	@Test
+	void shortPageContinuesIntoTheArchiveFromItsOldestMessage() throws Exception {
+		when(messageRepository.findByRoomIdAndMessageIdLessThan(eq("room"), eq(id(5)), any(Pageable.class)))
+				.thenReturn(List.of(message(4)));
+		when(messageArchive.before("room", id(4), 2)).thenReturn(List.of(message(2), message(3)));
+
+		List<Message> page = userService.getMessages(CLAIMS, "room", id(5), null, 3);
+
+		assertThat(page).extracting(Message::getMessageId).containsExactly(id(2), id(3), id(4));
+	}
+
+	@Test
+	void pageBeforeTheOldestMessageIsEmpty() throws Exception {
+		List<Message> page = userService.getMessages(CLAIMS, "room", id(1), null, 10);
+
+		assertThat(page).isEmpty();
+		verify(messageArchive).before("room", id(1), 10);
+	}
+
+	@Test
+	void afterCursorReadsForwardFromTheCursor() throws Exception {
+		when(messageRepository.findByRoomIdAndMessageIdGreaterThan(eq("room"), eq(id(1)), any(Pageable.class)))
+				.thenReturn(List.of(message(2), message(3)));
+
+		List<Message> page = userService.getMessages(CLAIMS, "room", null, id(1), 2);
+
+		assertThat(page).extracting(Message::getMessageId).containsExactly(id(2), id(3));
+		verify(messageRepository).findByRoomIdAndMessageIdGreaterThan(eq("room"), eq(id(1)),
+				argThat(pageable -> pageable.getPageSize() == 2
+						&& Sort.by(Sort.Direction.ASC, "messageId").equals(pageable.getSort())));
+	}
+
+	@Test
+	void pageSizeIsCapped() throws Exception {
+		userService.getMessages(CLAIMS, "room", null, null, 10_000);
+
+		verify(messageRepository).findByRoomId(eq("room"), argThat(newestFirst(200)));
+	}
+
+	@Test
+	void nonParticipantsCannotPage() {
+		assertThatThrownBy(() -> userService.getMessages(
+				new TokenClaims("token", "stranger", "stranger@example.com", "stranger", new Date()), "room", null, null, 10))
+				.isInstanceOf(ChatRoomException.class);
+	}
+
+	private static ArgumentMatcher<Pageable> newestFirst(int size) {
+		return pageable -> pageable.getPageSize() == size
+				&& Sort.by(Sort.Direction.DESC, "messageId").equals(pageable.getSort());
+	}
+
+	private static String id(int n) {
+		// Ids compare like ObjectIds, fixed width so string order is numeric order
+		return String.format("%024x", n);
+	}
+
+	private static Message message(int n) {
+		return Message.builder().messageId(id(n)).roomId("room").seq(n).text("hello " + n).build();
+	}
+}
@@ -0,0 +1,120 @@
+package com.auth.test;
+
+import com.auth.app.jwt.service.TokenClaims;
+import com.auth.app.model.Message;
+import com.auth.app.model.RoomMembership;
+import com.auth.app.model.user.repository.UserRepository;
+import com.auth.app.model.user.service.UserProfileCache;
+import com.auth.app.model.user.service.UserService;
+import com.auth.app.repository.ChatRoomRepository;
+import com.auth.app.repository.MessageRepository;
+import com.auth.app.service.MessageArchive;
+import com.auth.app.service.MessageWriter;
+import com.auth.app.service.ReadReceiptService;
+import com.auth.app.service.RecentMessageCache;
+import com.auth.app.service.RoomMembershipCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageResumeTests {
+
+	private static final TokenClaims CLAIMS = new TokenClaims("token", "user", "user@example.com", "user", new Date());
+
+	private MessageRepository messageRepository;
+	private MessageWriter messageWriter;
+	private MessageArchive messageArchive;
+	private RecentMessageCache recentMessageCache;
+	private UserService userService;
+
+	@BeforeEach
+	void setUp() {
+		messageRepository = mock(MessageRepository.class);
+		messageWriter = mock(MessageWriter.class);
+		messageArchive = mock(MessageArchive.class);
+		recentMessageCache = mock(RecentMessageCache.class);
+		RoomMembershipCache roomMembershipCache = mock(RoomMembershipCache.class);
+		when(roomMembershipCache.get("room"))
+				.thenReturn(Optional.of(new RoomMembership("room", Set.of("user"), Set.of("user"), "user")));
+		when(recentMessageCache.since(any(), anyLong(), anyInt())).thenReturn(Optional.empty());
+		userService = new UserService(mock(UserRepository.class), mock(ChatRoomRepository.class), messageRepository,
+				messageWriter, messageArchive, recentMessageCache, roomMembershipCache,
+				mock(UserProfileCache.class), mock(ReadReceiptService.class), mock(PasswordEncoder.class));
+	}
+
+	@Test
+	void fillsTheGapWithBufferedMessagesNotYetStored() throws Exception {
+		when(messageRepository.findByRoomIdAndSeqGreaterThan(eq("room"), eq(2L), any(Pageable.class)))
+				.thenReturn(List.of(message(3), message(5)));
+		when(messageWriter.unpersisted("room", 2)).thenReturn(List.of(message(4), message(6)));
+
+		List<Message> missed = userService.getMessagesSince(CLAIMS, "room", 2);
+
+		assertThat(missed).extracting(Message::getSeq).containsExactly(3L, 4L, 5L, 6L);
+	}
+
+	@Test
+	void messageFlushedBetweenTheReadsIsReturnedOnce() throws Exception {
+		when(messageWriter.unpersisted("room", 0)).thenReturn(List.of(message(1), message(2)));
+		when(messageRepository.findByRoomIdAndSeqGreaterThan(eq("room"), eq(0L), any(Pageable.class)))
+				.thenReturn(List.of(message(1)));
+
+		List<Message> missed = userService.getMessagesSince(CLAIMS, "room", 0);
+
+		assertThat(missed).extracting(Message::getSeq).containsExactly(1L, 2L);
+	}
+
+	@Test
+	void archivedMessagesComeBeforeStoredOnes() throws Exception {
+		when(messageArchive.since("room", 0, 500)).thenReturn(List.of(message(1), message(2)));
+		when(messageRepository.findByRoomIdAndSeqGreaterThan(eq("room"), eq(0L), any(Pageable.class)))
+				.thenReturn(List.of(message(3)));
+
+		List<Message> missed = userService.getMessagesSince(CLAIMS, "room", 0);
+
+		assertThat(missed).extracting(Message::getSeq).containsExactly(1L, 2L, 3L);
+	}
+
+	@Test
+	void replayIsCapped() throws Exception {
+		when(messageRepository.findByRoomIdAndSeqGreaterThan(eq("room"), eq(0L), any(Pageable.class)))
+				.thenReturn(LongStream.rangeClosed(1, 500).mapToObj(MessageResumeTests::message).toList());
+		when(messageWriter.unpersisted("room", 0)).thenReturn(List.of(message(501)));
+
+		List<Message> missed = userService.getMessagesSince(CLAIMS, "room", 0);
+
+		assertThat(missed).hasSize(500);
+		assertThat(missed.get(499).getSeq()).isEqualTo(500);
+	}
+
+	@Test
+	void servedFromTheCacheWhenItCoversTheGap() throws Exception {
+		when(recentMessageCache.since("room", 2, 500)).thenReturn(Optional.of(List.of(message(3))));
+
+		List<Message> missed = userService.getMessagesSince(CLAIMS, "room", 2);
+
+		assertThat(missed).extracting(Message::getSeq).containsExactly(3L);
+		verify(messageRepository, never()).findByRoomIdAndSeqGreaterThan(any(), anyLong(), any());
+	}
+
+	private static Message message(long seq) {
+		return Message.builder().messageId(String.format("%024x", seq)).roomId("room").seq(seq).text("hello " + seq).build();
+	}
+}
@@ -0,0 +1,127 @@
+package com.auth.test;
+
+import com.auth.app.DTO.SearchHit;
+import com.auth.app.exceptions.ChatRoomException;
+import com.auth.app.jwt.service.TokenClaims;
+import com.auth.app.model.Message;
+import com.auth.app.model.RoomMembership;
+import com.auth.app.model.user.repository.UserRepository;
+import com.auth.app.model.user.service.UserProfileCache;
+import com.auth.app.model.user.service.UserService;
+import com.auth.app.repository.ChatRoomRepository;
+import com.auth.app.repository.MessageRepository;
+import com.auth.app.repository.MessageRepositoryCustomImpl;
+import com.auth.app.service.MessageArchive;
+import com.auth.app.service.MessageWriter;
+import com.auth.app.service.ReadReceiptService;
+import com.auth.app.service.RecentMessageCache;
+import com.auth.app.service.RoomMembershipCache;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageSearchTests {
+
+	private static final TokenClaims CLAIMS = new TokenClaims("token", "user", "user@example.com", "user", new Date());
+
+	@Test
+	void searchCoversOnlyTheCallersRooms() throws Exception {
+		MessageRepository messageRepository = mock(MessageRepository.class);
+		ChatRoomRepository chatRoomRepository = mock(ChatRoomRepository.class);
+		when(chatRoomRepository.findRoomIds("user")).thenReturn(List.of("a", "b"));
+		UserService userService = userService(messageRepository, chatRoomRepository);
+
+		userService.searchMessages(CLAIMS, "hello", null, null, null);
+		userService.searchMessages(CLAIMS, "hello", "a", null, null);
+
+		verify(messageRepository).search("hello", List.of("a", "b"), 0, 50);
+		verify(messageRepository).search("hello", List.of("a"), 0, 50);
+		assertThatThrownBy(() -> userService.searchMessages(CLAIMS, "hello", "other", null, null))
+				.isInstanceOf(ChatRoomException.class);
+		verify(messageRepository, never()).search(anyString(), eq(List.of("other")), anyInt(), anyInt());
+	}
+
+	@Test
+	void pagesAreCapped() throws Exception {
+		MessageRepository messageRepository = mock(MessageRepository.class);
+		ChatRoomRepository chatRoomRepository = mock(ChatRoomRepository.class);
+		when(chatRoomRepository.findRoomIds("user")).thenReturn(List.of("a"));
+		UserService userService = userService(messageRepository, chatRoomRepository);
+
+		userService.searchMessages(CLAIMS, "hello", null, 10_000, 10_000);
+		userService.searchMessages(CLAIMS, "hello", null, 10_000, 10);
+
+		// At most a thousand ranked hits deep, whatever the page size
+		verify(messageRepository).search("hello", List.of("a"), 4, 200);
+		verify(messageRepository).search("hello", List.of("a"), 99, 10);
+	}
+
+	@Test
+	void queriesEachRoomByEqualityAndMergesByScoreThenRecency() {
+		MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+		MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+		converter.afterPropertiesSet();
+		when(mongoTemplate.getConverter()).thenReturn(converter);
+		when(mongoTemplate.getCollectionName(Message.class)).thenReturn("messages");
+		Map<String, List<Document>> byRoom = Map.of(
+				"a", List.of(hit("a", 3, 2.0), hit("a", 1, 1.0)),
+				"b", List.of(hit("b", 2, 3.0), hit("b", 4, 1.0)));
+		when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("messages"))).thenAnswer(invocation -> {
+			Query query = invocation.getArgument(0);
+			// An $in on roomId could not use the room-prefixed text index
+			assertThat(query.getQueryObject().get("roomId")).isInstanceOf(String.class);
+			return byRoom.get((String) query.getQueryObject().get("roomId"));
+		});
+		MessageRepositoryCustomImpl repository = new MessageRepositoryCustomImpl(mongoTemplate);
+
+		List<SearchHit> first = repository.search("hello", List.of("a", "b"), 0, 3);
+		List<SearchHit> second = repository.search("hello", List.of("a", "b"), 1, 3);
+
+		assertThat(first).extracting(hit -> hit.message().getMessageId()).containsExactly(id(2), id(3), id(4));
+		assertThat(first).extracting(SearchHit::score).containsExactly(3.0f, 2.0f, 1.0f);
+		assertThat(first.get(0).message().getRoomId()).isEqualTo("b");
+		assertThat(second).extracting(hit -> hit.message().getMessageId()).containsExactly(id(1));
+	}
+
+	private static UserService userService(MessageRepository messageRepository, ChatRoomRepository chatRoomRepository) {
+		RoomMembershipCache roomMembershipCache = mock(RoomMembershipCache.class);
+		when(roomMembershipCache.get("a"))
+				.thenReturn(Optional.of(new RoomMembership("a", Set.of("user"), Set.of("user"), "user")));
+		when(roomMembershipCache.get("other"))
+				.thenReturn(Optional.of(new RoomMembership("other", Set.of("stranger"), Set.of("stranger"), "stranger")));
+		return new UserService(mock(UserRepository.class), chatRoomRepository, messageRepository,
+				mock(MessageWriter.class), mock(MessageArchive.class), mock(RecentMessageCache.class), roomMembershipCache,
+				mock(UserProfileCache.class), mock(ReadReceiptService.class), mock(PasswordEncoder.class));
+	}
+
+	private static Document hit(String roomId, int n, double score) {
+		return new Document("_id", id(n)).append("roomId", roomId).append("seq", (long) n).append("text", "hello " + n)
+				.append("score", score);
+	}
+
+	private static String id(int n) {
+		return String.format("%024x", n);
+	}
+}
@@ -0,0 +1,81 @@
+package com.auth.test;
+
+import com.auth.app.cluster.ClusterBus;
+import com.auth.app.cluster.InProcessClusterTransport;
+import com.auth.app.model.ArchiveSegment;
+import com.auth.app.model.Message;
+import com.auth.app.repository.ArchiveSegmentRepository;
+import com.auth.app.repository.ChatRoomRepository;
+import com.auth.app.repository.MessageRepository;
+import com.auth.app.service.MessageSequencer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageSequencerTests {
+
+	private MessageRepository messageRepository;
+	private ChatRoomRepository chatRoomRepository;
+	private ArchiveSegmentRepository archiveSegmentRepository;
+
+	@BeforeEach
+	void setUp() {
+		messageRepository = mock(MessageRepository.class);
+		chatRoomRepository = mock(ChatRoomRepository.class);
+		archiveSegmentRepository = mock(ArchiveSegmentRepository.class);
+		when(messageRepository.findFirstByRoomIdOrderBySeqDesc(any())).thenReturn(Optional.empty());
+		when(archiveSegmentRepository.findFirstByRoomIdOrderByLastSeqDesc(any())).thenReturn(Optional.empty());
+	}
+
+	@Test
+	void continuesFromTheHighestStoredSequenceAndSeedsOnce() {
+		when(messageRepository.findFirstByRoomIdOrderBySeqDesc("room"))
+				.thenReturn(Optional.of(Message.builder().roomId("room").seq(41).build()));
+		MessageSequencer sequencer = standalone();
+
+		assertThat(sequencer.next("room")).isEqualTo(42);
+		assertThat(sequencer.next("room")).isEqualTo(43);
+		verify(messageRepository, times(1)).findFirstByRoomIdOrderBySeqDesc("room");
+	}
+
+	@Test
+	void fallsBackToTheArchiveWhenEveryMessageIsArchived() {
+		when(archiveSegmentRepository.findFirstByRoomIdOrderByLastSeqDesc("room"))
+				.thenReturn(Optional.of(ArchiveSegment.builder().roomId("room").lastSeq(7).build()));
+
+		assertThat(standalone().next("room")).isEqualTo(8);
+	}
+
+	@Test
+	void countsEachRoomOnItsOwnFromOne() {
+		MessageSequencer sequencer = standalone();
+
+		assertThat(sequencer.next("first")).isEqualTo(1);
+		assertThat(sequencer.next("first")).isEqualTo(2);
+		assertThat(sequencer.next("second")).isEqualTo(1);
+	}
+
+	@Test
+	void clusteredNumbersComeFromTheRoomDocument() {
+		when(chatRoomRepository.nextSeq("room")).thenReturn(5L, 6L);
+		ClusterBus clustered = new ClusterBus(Optional.of(new InProcessClusterTransport(new InProcessClusterTransport.Hub())));
+		MessageSequencer sequencer = new MessageSequencer(messageRepository, chatRoomRepository, archiveSegmentRepository, clustered);
+
+		assertThat(sequencer.next("room")).isEqualTo(5);
+		assertThat(sequencer.next("room")).isEqualTo(6);
+		verify(messageRepository, never()).findFirstByRoomIdOrderBySeqDesc(any());
+	}
+
+	private MessageSequencer standalone() {
+		return new MessageSequencer(messageRepository, chatRoomRepository, archiveSegmentRepository, new ClusterBus(Optional.empty()));
+	}
+}
@@ -0,0 +1,107 @@
+package com.auth.test;
+
+import com.auth.app.exceptions.MessageRejectedException;
+import com.auth.app.model.Message;
+import com.auth.app.repository.ChatRoomRepository;
+import com.auth.app.service.MessageWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageWriterTests {
+
+	private MongoTemplate mongoTemplate;
+	private BulkOperations bulk;
+	private ChatRoomRepository chatRoomRepository;
+	private MessageWriter writer;
+
+	@BeforeEach
+	void setUp() {
+		mongoTemplate = mock(MongoTemplate.class);
+		bulk = mock(BulkOperations.class);
+		chatRoomRepository = mock(ChatRoomRepository.class);
+		when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Message.class))).thenReturn(bulk);
+		when(bulk.insert(anyList())).thenReturn(bulk);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		if (writer != null) {
+			writer.stop();
+		}
+	}
+
+	@Test
+	void flushesQueuedMessagesAsOneBulkInsertAndCompletesOnceStored() throws Exception {
+		writer = new MessageWriter(mongoTemplate, chatRoomRepository, 10, 3, 1_000, MessageWriter.Durability.PERSISTED);
+		MessageWriter.Accepted first = writer.write(() -> message(1));
+		MessageWriter.Accepted second = writer.write(() -> message(2));
+		MessageWriter.Accepted third = writer.write(() -> message(3));
+		assertThat(first.persisted()).isNotDone();
+
+		writer.start();
+
+		assertThat(third.persisted().get(5, TimeUnit.SECONDS)).isSameAs(third.message());
+		assertThat(first.persisted()).isCompletedWithValue(first.message());
+		assertThat(second.persisted()).isCompletedWithValue(second.message());
+		verify(bulk).insert(argThat((List<?> batch) -> batch.size() == 3));
+	}
+
+	@Test
+	void enqueuedDurabilityCompletesBeforeTheFlush() {
+		writer = new MessageWriter(mongoTemplate, chatRoomRepository, 10, 3, 1_000, MessageWriter.Durability.ENQUEUED);
+
+		MessageWriter.Accepted accepted = writer.write(() -> message(1));
+
+		assertThat(accepted.persisted()).isCompletedWithValue(accepted.message());
+		verify(bulk, never()).insert(anyList());
+	}
+
+	@Test
+	void rejectsWithoutCreatingTheMessageWhenTheBufferIsFull() {
+		writer = new MessageWriter(mongoTemplate, chatRoomRepository, 2, 10, 1_000, MessageWriter.Durability.PERSISTED);
+		AtomicInteger created = new AtomicInteger();
+		writer.write(() -> message(created.incrementAndGet()));
+		writer.write(() -> message(created.incrementAndGet()));
+
+		assertThatThrownBy(() -> writer.write(() -> message(created.incrementAndGet())))
+				.isInstanceOf(MessageRejectedException.class);
+		assertThat(created).hasValue(2);
+	}
+
+	@Test
+	void keepsMessagesVisibleUntilTheirWriteHasFinished() throws Exception {
+		writer = new MessageWriter(mongoTemplate, chatRoomRepository, 10, 10, 20, MessageWriter.Durability.PERSISTED);
+		MessageWriter.Accepted first = writer.write(() -> message(1));
+		MessageWriter.Accepted second = writer.write(() -> message(2));
+
+		assertThat(writer.unpersisted("room", 0)).containsExactly(first.message(), second.message());
+		assertThat(writer.unpersisted("room", 1)).containsExactly(second.message());
+		assertThat(writer.unpersisted("other", 0)).isEmpty();
+
+		writer.start();
+		second.persisted().get(5, TimeUnit.SECONDS);
+		assertThat(writer.unpersisted("room", 0)).isEmpty();
+	}
+
+	private static Message message(long seq) {
+		return Message.builder().messageId("m" + seq).roomId("room").seq(seq).text("hello " + seq).build();
+	}
+}
@@ -0,0 +1,159 @@
+package com.auth.test;
+
+import com.auth.app.exceptions.PasswordHashingBusyException;
+import com.auth.app.jwt.service.CustomUserDetails;
+import com.auth.app.model.user.model.User;
+import com.auth.app.model.user.repository.UserRepository;
+import com.auth.app.service.PasswordHasher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PasswordHasherTests {
+
+	private PasswordHasher hasher;
+
+	@AfterEach
+	void tearDown() {
+		if (hasher != null) {
+			hasher.shutdown();
+		}
+	}
+
+	@Test
+	void loginRehashesPasswordsStoredWithALowerCost() {
+		hasher = new PasswordHasher(10, 1, 4, 10_000, new SimpleMeterRegistry());
+		User user = user(new BCryptPasswordEncoder(4).encode("secret"));
+		UserRepository userRepository = repository(user);
+
+		provider(userRepository).authenticate(new UsernamePasswordAuthenticationToken("alice", "secret"));
+
+		verify(userRepository).updatePassword("alice", user.getPassword());
+		verify(userRepository, never()).save(any());
+		assertThat(user.getPassword()).startsWith("$2a$10$");
+		assertThat(hasher.matches("secret", user.getPassword())).isTrue();
+	}
+
+	@Test
+	void loginKeepsPasswordsStoredWithTheConfiguredCost() {
+		hasher = new PasswordHasher(10, 1, 4, 10_000, new SimpleMeterRegistry());
+		User user = user(hasher.encode("secret"));
+		UserRepository userRepository = repository(user);
+
+		provider(userRepository).authenticate(new UsernamePasswordAuthenticationToken("alice", "secret"));
+
+		verify(userRepository, never()).updatePassword(any(), any());
+		verify(userRepository, never()).save(any());
+	}
+
+	@Test
+	void turnsHashesAwayOnceThePoolAndQueueAreFull() throws Exception {
+		hasher = new PasswordHasher(10, 1, 1, 10_000, new SimpleMeterRegistry());
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread first = new Thread(() -> hasher.encode(new BlockingPassword(running, release)));
+		first.start();
+		running.await();
+		Thread queued = new Thread(() -> hasher.encode("queued"));
+		queued.start();
+		// Waiting on its result with a timeout means the hash has been queued
+		while (queued.getState() != Thread.State.TIMED_WAITING) {
+			Thread.onSpinWait();
+		}
+
+		assertThatThrownBy(() -> hasher.encode("rejected")).isInstanceOf(PasswordHashingBusyException.class);
+
+		release.countDown();
+		first.join();
+		queued.join();
+	}
+
+	@Test
+	void givesUpOnHashesThatWaitPastTheTimeout() throws Exception {
+		hasher = new PasswordHasher(10, 1, 4, 50, new SimpleMeterRegistry());
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread first = new Thread(() -> {
+			try {
+				hasher.encode(new BlockingPassword(running, release));
+			} catch (PasswordHashingBusyException e) {
+				// Its own wait times out as well
+			}
+		});
+		first.start();
+		running.await();
+
+		assertThatThrownBy(() -> hasher.encode("waiting")).isInstanceOf(PasswordHashingBusyException.class);
+
+		release.countDown();
+		first.join();
+	}
+
+	private DaoAuthenticationProvider provider(UserRepository userRepository) {
+		CustomUserDetails userDetails = new CustomUserDetails(userRepository);
+		DaoAuthenticationProvider provider = new DaoAuthenticationProvider();
+		provider.setUserDetailsService(userDetails);
+		provider.setUserDetailsPasswordService(userDetails);
+		provider.setPasswordEncoder(hasher);
+		return provider;
+	}
+
+	private static UserRepository repository(User user) {
+		UserRepository userRepository = mock(UserRepository.class);
+		when(userRepository.findByUsernameOrEmail(anyString(), anyString())).thenReturn(Optional.of(user));
+		when(userRepository.findByUsername("alice")).thenReturn(Optional.of(user));
+		return userRepository;
+	}
+
+	private static User user(String password) {
+		return User.builder().id("1").username("alice").email("alice@example.com").password(password).roles(Set.of()).build();
+	}
+
+	/**
+	 * A password that holds the hashing thread until released, so tests can fill the pool.
+	 */
+	private record BlockingPassword(CountDownLatch running, CountDownLatch release) implements CharSequence {
+
+		@Override
+		public String toString() {
+			running.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return "blocking";
+		}
+
+		@Override
+		public int length() {
+			return toString().length();
+		}
+
+		@Override
+		public char charAt(int index) {
+			return toString().charAt(index);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().subSequence(start, end);
+		}
+	}
+}
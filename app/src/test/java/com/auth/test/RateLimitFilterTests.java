@@ -0,0 +1,190 @@
+package com.auth.test;
+
+import com.auth.app.ratelimit.Bandwidth;
+import com.auth.app.ratelimit.LocalRateLimitStore;
+import com.auth.app.ratelimit.RateLimitFilter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimitFilterTests {
+
+	private static final class ManualClock extends Clock {
+		private final AtomicLong millis = new AtomicLong(1_000_000);
+
+		void advance(long by) {
+			millis.addAndGet(by);
+		}
+
+		@Override
+		public long millis() {
+			return millis.get();
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(millis());
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+	}
+
+	private final ManualClock clock = new ManualClock();
+	private final RateLimitFilter filter = new RateLimitFilter(new LocalRateLimitStore(), new ObjectMapper(),
+			new SimpleMeterRegistry(), clock, new Bandwidth(2, 1_000), new Bandwidth(3, 10_000));
+
+	@Test
+	void rejectsAnAddressOverItsBucketUntilATokenIsRefilled() throws Exception {
+		assertThat(recovery("10.0.0.1", "a@example.com").getStatus()).isEqualTo(200);
+		assertThat(recovery("10.0.0.1", "b@example.com").getStatus()).isEqualTo(200);
+
+		MockHttpServletResponse rejected = recovery("10.0.0.1", "c@example.com");
+		assertThat(rejected.getStatus()).isEqualTo(429);
+		assertThat(rejected.getHeader("Retry-After")).isEqualTo("1");
+		assertThat(recovery("10.0.0.2", "c@example.com").getStatus()).isEqualTo(200);
+
+		clock.advance(1_000);
+		assertThat(recovery("10.0.0.1", "c@example.com").getStatus()).isEqualTo(200);
+	}
+
+	@Test
+	void limitsAnAccountAcrossAddressesAndPassesTheBodyOn() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			MockFilterChain chain = new MockFilterChain();
+			filter.doFilter(request("10.0.1." + i, "Victim@Example.com"), new MockHttpServletResponse(), chain);
+			assertThat(new String(chain.getRequest().getInputStream().readAllBytes(), StandardCharsets.UTF_8))
+					.contains("Victim@Example.com");
+		}
+
+		MockHttpServletResponse rejected = recovery("10.0.1.9", "victim@example.com");
+		assertThat(rejected.getStatus()).isEqualTo(429);
+		assertThat(rejected.getHeader("Retry-After")).isEqualTo("10");
+	}
+
+	@Test
+	void replaysTheBodyToNonBlockingReaders() throws Exception {
+		MockFilterChain chain = new MockFilterChain();
+		filter.doFilter(request("10.0.2.1", "reader@example.com"), new MockHttpServletResponse(), chain);
+		ServletInputStream in = chain.getRequest().getInputStream();
+		ByteArrayOutputStream read = new ByteArrayOutputStream();
+		List<String> events = new ArrayList<>();
+
+		in.setReadListener(new ReadListener() {
+			@Override
+			public void onDataAvailable() throws IOException {
+				events.add("data");
+				while (in.isReady() && !in.isFinished()) {
+					read.write(in.read());
+				}
+			}
+
+			@Override
+			public void onAllDataRead() {
+				events.add("done");
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				events.add("error");
+			}
+		});
+
+		assertThat(events).containsExactly("data", "done");
+		assertThat(read.toString(StandardCharsets.UTF_8)).contains("reader@example.com");
+	}
+
+	@Test
+	void forwardsReadListenerFailuresToOnError() throws Exception {
+		MockFilterChain chain = new MockFilterChain();
+		filter.doFilter(request("10.0.2.2", "reader@example.com"), new MockHttpServletResponse(), chain);
+		List<Throwable> errors = new ArrayList<>();
+
+		chain.getRequest().getInputStream().setReadListener(new ReadListener() {
+			@Override
+			public void onDataAvailable() throws IOException {
+				throw new IOException("consumer failed");
+			}
+
+			@Override
+			public void onAllDataRead() {
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				errors.add(t);
+			}
+		});
+
+		assertThat(errors).singleElement().extracting(Throwable::getMessage).isEqualTo("consumer failed");
+	}
+
+	@Test
+	void grantsExactlyTheCapacityToConcurrentRequests() throws Exception {
+		LocalRateLimitStore store = new LocalRateLimitStore();
+		Bandwidth bandwidth = new Bandwidth(100, 60_000);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger granted = new AtomicInteger();
+		for (int i = 0; i < 1_000; i++) {
+			pool.execute(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				if (store.tryAcquire("address:10.0.0.1", bandwidth, 5_000) == 0) {
+					granted.incrementAndGet();
+				}
+			});
+		}
+		start.countDown();
+		pool.shutdown();
+		assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(granted.get()).isEqualTo(100);
+	}
+
+	private MockHttpServletResponse recovery(String address, String email) throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(request(address, email), response, new MockFilterChain());
+		return response;
+	}
+
+	private static MockHttpServletRequest request(String address, String email) {
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/auth/recovery");
+		request.setRemoteAddr(address);
+		request.setContentType("application/json");
+		request.setContent(("{\"email\":\"" + email + "\"}").getBytes(StandardCharsets.UTF_8));
+		return request;
+	}
+}
@@ -0,0 +1,117 @@
+package com.auth.test;
+
+import com.auth.app.cluster.ClusterBus;
+import com.auth.app.model.Message;
+import com.auth.app.repository.MessageRepository;
+import com.auth.app.service.MessageArchive;
+import com.auth.app.service.MessageWriter;
+import com.auth.app.service.RecentMessageCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RecentMessageCacheTests {
+
+	// Estimated size of one test message: fixed overhead plus two bytes per character of "hello"
+	private static final long MESSAGE_BYTES = 160 + 2 * "hello".length();
+
+	private MessageRepository messageRepository;
+	private MessageArchive messageArchive;
+
+	@BeforeEach
+	void setUp() {
+		messageRepository = mock(MessageRepository.class);
+		messageArchive = mock(MessageArchive.class);
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedRoomsOnceOverTheByteBudget() throws Exception {
+		RecentMessageCache cache = cache(10, 2 * MESSAGE_BYTES);
+		cache.append(message("first", 1));
+		Thread.sleep(2);
+		cache.append(message("second", 2));
+		Thread.sleep(2);
+		cache.find("first", id(1));
+		Thread.sleep(2);
+
+		cache.append(message("third", 3));
+
+		assertThat(cache.find("first", id(1))).isPresent();
+		assertThat(cache.find("second", id(2))).isEmpty();
+		assertThat(cache.find("third", id(3))).isPresent();
+	}
+
+	@Test
+	void removedMessagesGiveTheirBytesBack() {
+		RecentMessageCache cache = cache(10, 2 * MESSAGE_BYTES);
+		Message first = message("first", 1);
+		cache.append(first);
+		cache.append(message("second", 2));
+		cache.remove(first);
+
+		cache.append(message("third", 3));
+
+		assertThat(cache.find("second", id(2))).isPresent();
+		assertThat(cache.find("third", id(3))).isPresent();
+	}
+
+	@Test
+	void roomLoadedWithFewerMessagesThanItsCapacityIsComplete() {
+		when(messageRepository.findByRoomId(eq("room"), any(Pageable.class))).thenReturn(List.of(message("room", 2), message("room", 1)));
+		RecentMessageCache cache = cache(10, Long.MAX_VALUE);
+
+		assertThat(cache.latest("room", 5)).hasValueSatisfying(page -> assertThat(page).hasSize(2));
+		assertThat(cache.all("room")).hasValueSatisfying(all -> assertThat(all).hasSize(2));
+		assertThat(cache.before("room", id(1), 5)).contains(List.of());
+	}
+
+	@Test
+	void roomWithArchivedHistoryIsNotComplete() {
+		when(messageRepository.findByRoomId(eq("room"), any(Pageable.class))).thenReturn(List.of(message("room", 2), message("room", 1)));
+		when(messageArchive.contains("room")).thenReturn(true);
+		RecentMessageCache cache = cache(10, Long.MAX_VALUE);
+
+		assertThat(cache.latest("room", 2)).isPresent();
+		assertThat(cache.all("room")).isEmpty();
+		assertThat(cache.before("room", id(1), 5)).isEmpty();
+	}
+
+	@Test
+	void trimmingTheOldestMessageClearsComplete() {
+		RecentMessageCache cache = cache(2, Long.MAX_VALUE);
+		cache.latest("room", 1);
+		assertThat(cache.all("room")).contains(List.of());
+
+		cache.append(message("room", 1));
+		cache.append(message("room", 2));
+		assertThat(cache.all("room")).isPresent();
+		cache.append(message("room", 3));
+
+		assertThat(cache.all("room")).isEmpty();
+		assertThat(cache.latest("room", 2)).hasValueSatisfying(page ->
+				assertThat(page).extracting(Message::getSeq).containsExactly(2L, 3L));
+		assertThat(cache.since("room", 0, 10)).isEmpty();
+	}
+
+	private RecentMessageCache cache(int roomCapacity, long maxBytes) {
+		return new RecentMessageCache(messageRepository, messageArchive, mock(MessageWriter.class),
+				new ClusterBus(Optional.empty()), roomCapacity, maxBytes, 30);
+	}
+
+	private static String id(long seq) {
+		return String.format("%024x", seq);
+	}
+
+	private static Message message(String roomId, long seq) {
+		return Message.builder().messageId(id(seq)).roomId(roomId).seq(seq).text("hello").build();
+	}
+}
@@ -0,0 +1,237 @@
+package com.auth.test;
+
+import com.auth.app.cluster.ClusterBus;
+import com.auth.app.jwt.service.TokenClaims;
+import com.auth.app.model.Message;
+import com.auth.app.model.RoomMembership;
+import com.auth.app.model.user.repository.UserRepository;
+import com.auth.app.model.user.service.UserProfileCache;
+import com.auth.app.model.user.service.UserService;
+import com.auth.app.repository.ChatRoomRepository;
+import com.auth.app.repository.InvitationRepository;
+import com.auth.app.service.ChatService;
+import com.auth.app.service.MessageSequencer;
+import com.auth.app.service.MessageWriter;
+import com.auth.app.service.ReadReceiptService;
+import com.auth.app.service.RecentMessageCache;
+import com.auth.app.service.RoomBroadcaster;
+import com.auth.app.service.RoomMembershipCache;
+import com.corundumstudio.socketio.BroadcastOperations;
+import com.corundumstudio.socketio.SocketIOClient;
+import com.corundumstudio.socketio.SocketIOServer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RoomBroadcasterTests {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	/** One socket.io frame sent to the room, with the seqs of the messages it carried. */
+	private record Frame(String event, List<Long> seqs) {
+	}
+
+	private final List<Frame> frames = new CopyOnWriteArrayList<>();
+	private final List<RoomBroadcaster> broadcasters = new ArrayList<>();
+	private SocketIOServer server;
+
+	@BeforeEach
+	void setUp() {
+		server = mock(SocketIOServer.class);
+		BroadcastOperations jsonRoom = mock(BroadcastOperations.class);
+		BroadcastOperations cborRoom = mock(BroadcastOperations.class);
+		when(server.getRoomOperations("room")).thenReturn(jsonRoom);
+		when(server.getRoomOperations("room#cbor")).thenReturn(cborRoom);
+		when(jsonRoom.getClients()).thenReturn(List.of(mock(SocketIOClient.class)));
+		when(cborRoom.getClients()).thenReturn(List.of());
+		doAnswer(invocation -> {
+			frames.add(frame(invocation.getArgument(0), invocation.getArgument(1).toString()));
+			return null;
+		}).when(jsonRoom).sendEvent(anyString(), any());
+	}
+
+	@AfterEach
+	void tearDown() {
+		broadcasters.forEach(RoomBroadcaster::stop);
+	}
+
+	@Test
+	void unbatchedSendsEveryMessageAtOnce() {
+		RoomBroadcaster broadcaster = broadcaster(false, 50, 50);
+
+		broadcaster.broadcast(message(1));
+		broadcaster.broadcast(message(2));
+
+		assertThat(frames).containsExactly(new Frame("newMessage", List.of(1L)), new Frame("newMessage", List.of(2L)));
+	}
+
+	@Test
+	void batchesKeepSubmissionOrderWithinAndAcrossFlushes() {
+		RoomBroadcaster broadcaster = broadcaster(true, 7, 40);
+
+		for (long seq = 1; seq <= 300; seq++) {
+			broadcaster.broadcast(message(seq));
+		}
+
+		await(() -> sentSeqs().size() == 300);
+		assertThat(sentSeqs()).containsExactlyElementsOf(LongStream.rangeClosed(1, 300).boxed().toList());
+		assertThat(frames).allSatisfy(frame -> assertThat(frame.seqs()).hasSizeBetween(1, 7));
+		assertThat(frames).anySatisfy(frame -> assertThat(frame.event()).isEqualTo("newMessages"));
+	}
+
+	@Test
+	void fullBatchIsSentWithoutWaitingForTheWindow() {
+		RoomBroadcaster broadcaster = broadcaster(true, 5, 60_000);
+		// Every flush within a quarter of the window counts as busy, so each one doubles the window
+		long seq = 0;
+		for (int i = 0; i < 8; i++) {
+			broadcaster.broadcast(message(++seq));
+			long expected = seq;
+			await(() -> sentSeqs().size() == expected);
+		}
+		int sent = frames.size();
+
+		for (int i = 0; i < 4; i++) {
+			broadcaster.broadcast(message(++seq));
+		}
+		assertThat(frames).hasSize(sent);
+
+		broadcaster.broadcast(message(++seq));
+		assertThat(frames).hasSize(sent + 1);
+		assertThat(frames.get(sent)).isEqualTo(new Frame("newMessages", List.of(9L, 10L, 11L, 12L, 13L)));
+	}
+
+	@Test
+	void windowGrowsUnderLoadAndFallsBackToImmediateSends() throws InterruptedException {
+		RoomBroadcaster broadcaster = broadcaster(true, 1000, 40);
+		long seq = 0;
+		while (seq < 200) {
+			broadcaster.broadcast(message(++seq));
+		}
+		await(() -> sentSeqs().size() == 200);
+		assertThat(frames.size()).isLessThan(200);
+
+		// Single messages further apart than a quarter of the window halve it on every flush, down to none
+		boolean immediate = false;
+		for (int i = 0; i < 20 && !immediate; i++) {
+			TimeUnit.MILLISECONDS.sleep(15);
+			broadcaster.broadcast(message(++seq));
+			long expected = seq;
+			immediate = sentSeqs().size() == expected;
+			await(() -> sentSeqs().size() == expected);
+		}
+		assertThat(immediate).isTrue();
+		assertThat(frames.get(frames.size() - 1)).isEqualTo(new Frame("newMessage", List.of(seq)));
+	}
+
+	@Test
+	void concurrentSendersReachTheRoomInSeqOrder() throws Exception {
+		RoomBroadcaster broadcaster = broadcaster(true, 20, 20);
+		ChatService chatService = chatService(broadcaster);
+		int senders = 8;
+		int perSender = 200;
+		ExecutorService pool = Executors.newFixedThreadPool(senders);
+		CountDownLatch start = new CountDownLatch(1);
+		List<CompletableFuture<Void>> sends = new ArrayList<>();
+		for (int i = 0; i < senders; i++) {
+			sends.add(CompletableFuture.runAsync(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				for (int j = 0; j < perSender; j++) {
+					chatService.sendMessage("room", "hello", new TokenClaims("token", "user", "user@example.com", "user", new Date()));
+				}
+			}, pool));
+		}
+		start.countDown();
+		CompletableFuture.allOf(sends.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+		pool.shutdown();
+
+		await(() -> sentSeqs().size() == senders * perSender);
+		assertThat(sentSeqs()).containsExactlyElementsOf(LongStream.rangeClosed(1, senders * perSender).boxed().toList());
+	}
+
+	private RoomBroadcaster broadcaster(boolean batching, int maxBatch, long maxWindowMillis) {
+		RoomBroadcaster broadcaster = new RoomBroadcaster(server, new ClusterBus(Optional.empty()), batching, maxBatch, maxWindowMillis);
+		broadcasters.add(broadcaster);
+		return broadcaster;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ChatService chatService(RoomBroadcaster broadcaster) {
+		RoomMembershipCache roomMembershipCache = mock(RoomMembershipCache.class);
+		when(roomMembershipCache.get("room"))
+				.thenReturn(Optional.of(new RoomMembership("room", Set.of("user"), Set.of("user"), "user")));
+		AtomicLong counter = new AtomicLong();
+		MessageSequencer messageSequencer = mock(MessageSequencer.class);
+		when(messageSequencer.next("room")).thenAnswer(invocation -> {
+			long seq = counter.incrementAndGet();
+			// Gives another sender the chance to slip in between numbering and broadcasting
+			Thread.yield();
+			return seq;
+		});
+		MessageWriter messageWriter = mock(MessageWriter.class);
+		when(messageWriter.write(any())).thenAnswer(invocation -> {
+			Message message = ((Supplier<Message>) invocation.getArgument(0)).get();
+			return new MessageWriter.Accepted(message, CompletableFuture.completedFuture(message));
+		});
+		return new ChatService(mock(ChatRoomRepository.class), mock(InvitationRepository.class), messageWriter, messageSequencer,
+				mock(RecentMessageCache.class), roomMembershipCache, mock(ReadReceiptService.class), mock(UserRepository.class),
+				mock(UserService.class), mock(UserProfileCache.class), new ClusterBus(Optional.empty()),
+				mock(ExecutorService.class), broadcaster);
+	}
+
+	private List<Long> sentSeqs() {
+		return frames.stream().flatMap(frame -> frame.seqs().stream()).toList();
+	}
+
+	private static void await(BooleanSupplier condition) {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime()).as("timed out waiting for broadcasts").isLessThan(deadline);
+			Thread.onSpinWait();
+		}
+	}
+
+	private static Frame frame(String event, String json) throws Exception {
+		JsonNode payload = MAPPER.readTree(json);
+		List<Long> seqs = new ArrayList<>();
+		if (payload.isArray()) {
+			payload.forEach(message -> seqs.add(message.get("seq").asLong()));
+		} else {
+			seqs.add(payload.get("seq").asLong());
+		}
+		return new Frame(event, seqs);
+	}
+
+	private static Message message(long seq) {
+		return Message.builder().messageId(String.format("%024x", seq)).roomId("room").seq(seq).text("hello " + seq).build();
+	}
+}
@@ -0,0 +1,112 @@
+package com.auth.test;
+
+import com.auth.app.model.Message;
+import com.auth.app.service.MessageArchive;
+import com.auth.app.service.MessageWriter;
+import com.auth.app.service.RoomExporter;
+import com.auth.app.service.RoomMembershipCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RoomExporterTests {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private MongoTemplate mongoTemplate;
+	private MessageArchive messageArchive;
+	private MessageWriter messageWriter;
+	private RoomExporter exporter;
+
+	@BeforeEach
+	void setUp() {
+		mongoTemplate = mock(MongoTemplate.class);
+		messageArchive = mock(MessageArchive.class);
+		messageWriter = mock(MessageWriter.class);
+		exporter = new RoomExporter(mongoTemplate, messageArchive, messageWriter, mock(RoomMembershipCache.class), MAPPER, 2);
+	}
+
+	@Test
+	void writesArchivedStoredAndBufferedMessagesInOrder() throws IOException {
+		sources(List.of(List.of(message(1), message(2)), List.of(message(3))), List.of(message(4), message(5)), List.of(message(6)));
+
+		List<Message> exported = read(export(false));
+
+		assertThat(exported).extracting(Message::getSeq).containsExactly(1L, 2L, 3L, 4L, 5L, 6L);
+		assertThat(exported.get(0)).isEqualTo(message(1));
+	}
+
+	@Test
+	void messagesSeenInTwoSourcesAreWrittenOnce() throws IOException {
+		// Archived while the export ran, and flushed while it read the collection
+		sources(List.of(List.of(message(1), message(2), message(3))), List.of(message(3), message(4), message(5)),
+				List.of(message(5), message(6)));
+
+		assertThat(read(export(false))).extracting(Message::getSeq).containsExactly(1L, 2L, 3L, 4L, 5L, 6L);
+	}
+
+	@Test
+	void gzipExportIsOneCompleteMemberWithTheSameLines() throws IOException {
+		sources(List.of(List.of(message(1), message(2))), List.of(message(3)), List.of());
+		byte[] plain = export(false);
+
+		byte[] compressed = export(true);
+
+		assertThat(compressed[0]).isEqualTo((byte) 0x1f);
+		assertThat(compressed[1]).isEqualTo((byte) 0x8b);
+		// Reading to the end checks the trailer's CRC and length
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			assertThat(in.readAllBytes()).isEqualTo(plain);
+		}
+	}
+
+	private void sources(List<List<Message>> archived, List<Message> stored, List<Message> buffered) {
+		doAnswer(invocation -> {
+			archived.forEach(invocation.<Consumer<List<Message>>>getArgument(1));
+			return null;
+		}).when(messageArchive).forEach(eq("room"), any());
+		when(mongoTemplate.stream(any(Query.class), eq(Message.class))).thenAnswer(invocation -> stored.stream());
+		when(messageWriter.unpersisted(eq("room"), anyLong())).thenReturn(buffered);
+	}
+
+	private byte[] export(boolean gzip) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		exporter.export("room", out, gzip);
+		return out.toByteArray();
+	}
+
+	private static List<Message> read(byte[] ndjson) throws IOException {
+		String text = new String(ndjson, StandardCharsets.UTF_8);
+		assertThat(text).endsWith("\n");
+		List<Message> messages = new ArrayList<>();
+		for (String line : text.split("\n")) {
+			messages.add(MAPPER.readValue(line, Message.class));
+		}
+		return messages;
+	}
+
+	private static Message message(int n) {
+		return Message.builder().messageId(String.format("%024x", n)).roomId("room").seq(n).sender("user@example.com")
+				.text("message " + n).build();
+	}
+}
@@ -0,0 +1,123 @@
+package com.auth.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal in-process SMTP server for tests. Accepts every message except those addressed to a recipient
+ * starting with {@code reject}, and records what it received.
+ */
+class SmtpStandIn implements AutoCloseable {
+
+	record Received(String from, List<String> to, String data) {
+	}
+
+	private final ServerSocket server;
+	private final List<Received> received = new CopyOnWriteArrayList<>();
+	private final AtomicInteger connections = new AtomicInteger();
+
+	SmtpStandIn() throws IOException {
+		server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(this::accept, "smtp-stand-in");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	int port() {
+		return server.getLocalPort();
+	}
+
+	List<Received> received() {
+		return received;
+	}
+
+	int connections() {
+		return connections.get();
+	}
+
+	private void accept() {
+		while (!server.isClosed()) {
+			try {
+				Socket socket = server.accept();
+				connections.incrementAndGet();
+				Thread session = new Thread(() -> serve(socket), "smtp-stand-in-session");
+				session.setDaemon(true);
+				session.start();
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (socket;
+			 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			 PrintWriter out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.US_ASCII)) {
+			reply(out, "220 localhost ESMTP stand-in");
+			String from = null;
+			List<String> to = new ArrayList<>();
+			String line;
+			while ((line = in.readLine()) != null) {
+				String command = line.toUpperCase();
+				if (command.startsWith("EHLO") || command.startsWith("HELO")) {
+					reply(out, "250 localhost");
+				} else if (command.startsWith("MAIL FROM:")) {
+					from = address(line);
+					to.clear();
+					reply(out, "250 OK");
+				} else if (command.startsWith("RCPT TO:")) {
+					String recipient = address(line);
+					if (recipient.startsWith("reject")) {
+						reply(out, "550 No such user");
+					} else {
+						to.add(recipient);
+						reply(out, "250 OK");
+					}
+				} else if (command.equals("DATA")) {
+					reply(out, "354 End data with <CR><LF>.<CR><LF>");
+					StringBuilder data = new StringBuilder();
+					while ((line = in.readLine()) != null && !line.equals(".")) {
+						data.append(line).append('\n');
+					}
+					received.add(new Received(from, List.copyOf(to), data.toString()));
+					reply(out, "250 OK");
+				} else if (command.equals("QUIT")) {
+					reply(out, "221 Bye");
+					return;
+				} else {
+					// RSET, NOOP and anything else
+					from = command.equals("RSET") ? null : from;
+					reply(out, "250 OK");
+				}
+			}
+		} catch (IOException ignored) {
+			// Client went away
+		}
+	}
+
+	private static void reply(PrintWriter out, String line) {
+		out.print(line + "\r\n");
+		out.flush();
+	}
+
+	private static String address(String line) {
+		int start = line.indexOf('<');
+		int end = line.indexOf('>');
+		return start >= 0 && end > start ? line.substring(start + 1, end) : line.substring(line.indexOf(':') + 1).trim();
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+	}
+}
@@ -0,0 +1,222 @@
+package com.auth.test;
+
+import com.auth.app.DTO.VoiceUploadResponse;
+import com.auth.app.controller.UserController;
+import com.auth.app.exceptions.InvalidUploadException;
+import com.auth.app.jwt.service.JwtService;
+import com.auth.app.jwt.service.TokenClaims;
+import com.auth.app.model.Attachment;
+import com.auth.app.model.Message;
+import com.auth.app.model.RoomMembership;
+import com.auth.app.model.user.service.UserService;
+import com.auth.app.repository.MessageRepository;
+import com.auth.app.service.ChatService;
+import com.auth.app.service.MessageArchive;
+import com.auth.app.service.MessageWriter;
+import com.auth.app.service.RecentMessageCache;
+import com.auth.app.service.RoomExporter;
+import com.auth.app.service.RoomMembershipCache;
+import com.auth.app.service.VoiceMessageService;
+import com.auth.app.storage.BlobStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class VoiceMessageServiceTests {
+
+	private static final TokenClaims CLAIMS = new TokenClaims("token", "user", "user@example.com", "user", new Date());
+
+	/** Blobs kept in a map, the way the stored content would be read back. */
+	private static final class InMemoryBlobStore implements BlobStore {
+		private final Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+
+		@Override
+		public String store(InputStream content, String contentType) throws IOException {
+			String id = "blob-" + blobs.size();
+			blobs.put(id, content.readAllBytes());
+			return id;
+		}
+
+		@Override
+		public Optional<Resource> load(String id) {
+			return Optional.ofNullable(blobs.get(id)).map(ByteArrayResource::new);
+		}
+
+		@Override
+		public void delete(String id) {
+			blobs.remove(id);
+		}
+	}
+
+	private Path stagingDir;
+	private InMemoryBlobStore blobStore;
+	private ChatService chatService;
+	private RoomMembershipCache roomMembershipCache;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		stagingDir = Files.createTempDirectory("voice-uploads");
+		blobStore = new InMemoryBlobStore();
+		chatService = mock(ChatService.class);
+		roomMembershipCache = mock(RoomMembershipCache.class);
+		when(roomMembershipCache.get("room"))
+				.thenReturn(Optional.of(new RoomMembership("room", Set.of("user"), Set.of("user"), "user")));
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(stagingDir)) {
+			for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	@Test
+	void chunkPastTheReceivedOffsetIsRefusedWithTheOffsetToResumeFrom() throws Exception {
+		VoiceMessageService service = service(4, 10);
+		JwtService jwtService = mock(JwtService.class);
+		when(jwtService.parse("token")).thenReturn(CLAIMS);
+		UserController controller = new UserController(mock(UserService.class), chatService, jwtService, service,
+				mock(RoomExporter.class));
+		String uploadId = service.startUpload(CLAIMS, "room", "audio/webm", 8).uploadId();
+		controller.uploadVoiceChunk("Bearer token", uploadId, 0, bytes(0, 4));
+
+		ResponseEntity<VoiceUploadResponse> skipped = controller.uploadVoiceChunk("Bearer token", uploadId, 6, bytes(6, 2));
+		ResponseEntity<VoiceUploadResponse> repeated = controller.uploadVoiceChunk("Bearer token", uploadId, 0, bytes(0, 4));
+
+		assertThat(skipped.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+		assertThat(skipped.getBody().received()).isEqualTo(4);
+		// A chunk sent again after a lost acknowledgement is not an error, nor is it written twice
+		assertThat(repeated.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(repeated.getBody().received()).isEqualTo(4);
+		assertThat(staged(uploadId)).containsExactly(range(0, 4));
+
+		ResponseEntity<VoiceUploadResponse> resumed = controller.uploadVoiceChunk("Bearer token", uploadId, 4, bytes(4, 4));
+		assertThat(resumed.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(resumed.getBody().received()).isEqualTo(8);
+		assertThat(staged(uploadId)).containsExactly(range(0, 8));
+	}
+
+	@Test
+	void oversizedChunkIsRefusedAndTruncatedAway() throws Exception {
+		VoiceMessageService service = service(4, 10);
+		String uploadId = service.startUpload(CLAIMS, "room", "audio/webm", 10).uploadId();
+		service.appendChunk(CLAIMS, uploadId, 0, bytes(0, 4));
+
+		assertThatThrownBy(() -> service.appendChunk(CLAIMS, uploadId, 4, bytes(4, 5)))
+				.isInstanceOf(InvalidUploadException.class);
+		assertThat(staged(uploadId)).containsExactly(range(0, 4));
+
+		// Near the end the limit is what is left of the clip
+		service.appendChunk(CLAIMS, uploadId, 4, bytes(4, 4));
+		assertThatThrownBy(() -> service.appendChunk(CLAIMS, uploadId, 8, bytes(8, 3)))
+				.isInstanceOf(InvalidUploadException.class);
+		assertThat(service.appendChunk(CLAIMS, uploadId, 8, bytes(8, 2)).received()).isEqualTo(10);
+	}
+
+	@Test
+	void uploadsInProgressAreCappedPerUser() throws Exception {
+		VoiceMessageService service = service(4, 10);
+		for (int i = 0; i < 3; i++) {
+			service.startUpload(CLAIMS, "room", "audio/webm", 8);
+		}
+
+		assertThatThrownBy(() -> service.startUpload(CLAIMS, "room", "audio/webm", 8))
+				.isInstanceOf(InvalidUploadException.class)
+				.hasMessageContaining("Too many");
+	}
+
+	@Test
+	void idleUploadsExpireWithTheirStagingFiles() throws Exception {
+		VoiceMessageService service = service(4, 0);
+		String uploadId = service.startUpload(CLAIMS, "room", "audio/webm", 8).uploadId();
+		service.appendChunk(CLAIMS, uploadId, 0, bytes(0, 4));
+
+		service.expireUploads();
+
+		assertThat(stagingDir.resolve(uploadId)).doesNotExist();
+		assertThatThrownBy(() -> service.appendChunk(CLAIMS, uploadId, 4, bytes(4, 4)))
+				.isInstanceOf(InvalidUploadException.class);
+		// The slot is free again
+		for (int i = 0; i < 3; i++) {
+			service.startUpload(CLAIMS, "room", "audio/webm", 8);
+		}
+	}
+
+	@Test
+	void completedUploadBecomesAMessageReferencingTheBlob() throws Exception {
+		VoiceMessageService service = service(8, 10);
+		when(chatService.sendVoiceMessage(eq("room"), any(Attachment.class), eq(CLAIMS))).thenAnswer(invocation -> {
+			Message message = Message.builder().roomId("room").voice(invocation.getArgument(1)).build();
+			return new MessageWriter.Accepted(message, CompletableFuture.completedFuture(message));
+		});
+		String uploadId = service.startUpload(CLAIMS, "room", "audio/webm", 8).uploadId();
+		service.appendChunk(CLAIMS, uploadId, 0, bytes(0, 8));
+
+		Attachment voice = service.completeUpload(CLAIMS, uploadId).message().getVoice();
+
+		assertThat(voice.contentType()).isEqualTo("audio/webm");
+		assertThat(blobStore.blobs.get(voice.id())).containsExactly(range(0, 8));
+		assertThat(stagingDir.resolve(uploadId)).doesNotExist();
+	}
+
+	@Test
+	void blobIsDeletedWhenTheMessageCannotBeCreated() throws Exception {
+		VoiceMessageService service = service(8, 10);
+		when(chatService.sendVoiceMessage(any(), any(), any())).thenThrow(new IllegalStateException("buffer full"));
+		String uploadId = service.startUpload(CLAIMS, "room", "audio/webm", 8).uploadId();
+		service.appendChunk(CLAIMS, uploadId, 0, bytes(0, 8));
+
+		assertThatThrownBy(() -> service.completeUpload(CLAIMS, uploadId)).hasMessage("buffer full");
+
+		assertThat(blobStore.blobs).isEmpty();
+		assertThat(stagingDir.resolve(uploadId)).doesNotExist();
+	}
+
+	private VoiceMessageService service(int maxChunkBytes, long uploadTimeoutMinutes) throws IOException {
+		return new VoiceMessageService(blobStore, chatService, roomMembershipCache, mock(RecentMessageCache.class),
+				mock(MessageRepository.class), mock(MessageArchive.class), 1024, maxChunkBytes, 3, uploadTimeoutMinutes, stagingDir);
+	}
+
+	private byte[] staged(String uploadId) throws IOException {
+		return Files.readAllBytes(stagingDir.resolve(uploadId));
+	}
+
+	private static InputStream bytes(int from, int count) {
+		return new ByteArrayInputStream(range(from, from + count));
+	}
+
+	private static byte[] range(int from, int to) {
+		byte[] bytes = new byte[to - from];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) (from + i);
+		}
+		return bytes;
+	}
+}
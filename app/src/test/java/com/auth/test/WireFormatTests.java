@@ -0,0 +1,93 @@
+package com.auth.test;
+
+import com.auth.app.model.Attachment;
+import com.auth.app.model.Message;
+import com.auth.app.service.PreEncodedJson;
+import com.auth.app.service.WireFormat;
+import com.corundumstudio.socketio.SocketIOClient;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class WireFormatTests {
+
+	// Configured like the socket server's own Jackson support
+	private static final ObjectMapper SOCKET_MAPPER = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+	private static final ObjectMapper CBOR_MAPPER = new CBORMapper();
+
+	@Test
+	void handshakeDefaultsToJson() {
+		assertThat(WireFormat.fromHandshake(null)).isEqualTo(WireFormat.JSON);
+		assertThat(WireFormat.fromHandshake("")).isEqualTo(WireFormat.JSON);
+		assertThat(WireFormat.fromHandshake("msgpack")).isEqualTo(WireFormat.JSON);
+		assertThat(WireFormat.fromHandshake("cbor")).isEqualTo(WireFormat.CBOR);
+		assertThat(WireFormat.fromHandshake("CBOR")).isEqualTo(WireFormat.CBOR);
+
+		SocketIOClient client = mock(SocketIOClient.class);
+		assertThat(WireFormat.of(client)).isEqualTo(WireFormat.JSON);
+		when(client.get(WireFormat.SESSION_ATTRIBUTE)).thenReturn(WireFormat.CBOR);
+		assertThat(WireFormat.of(client)).isEqualTo(WireFormat.CBOR);
+	}
+
+	@Test
+	void eachFormatHasItsOwnRoom() {
+		assertThat(WireFormat.JSON.room("room")).isEqualTo("room");
+		assertThat(WireFormat.CBOR.room("room")).isEqualTo("room#cbor");
+	}
+
+	@Test
+	void cborDecodesToTheSameValuesAsJson() throws Exception {
+		List<Message> messages = List.of(message(1, null), message(2, new Attachment("blob", "audio/webm", 1234)));
+
+		Object json = WireFormat.JSON.encode(messages);
+		Object cbor = WireFormat.CBOR.encode(messages);
+
+		assertThat(cbor).isInstanceOf(byte[].class);
+		TypeReference<List<Message>> type = new TypeReference<>() {
+		};
+		List<Message> fromJson = SOCKET_MAPPER.readValue(json.toString(), type);
+		List<Message> fromCbor = CBOR_MAPPER.readValue((byte[]) cbor, type);
+		assertThat(fromCbor).isEqualTo(fromJson).isEqualTo(messages);
+		// Absent fields are left out of both, not sent as null
+		JsonNode jsonTree = SOCKET_MAPPER.readTree(json.toString());
+		JsonNode cborTree = CBOR_MAPPER.readTree((byte[]) cbor);
+		assertThat(cborTree.get(0).has("voice")).isFalse();
+		assertThat(fieldNames(cborTree.get(0))).isEqualTo(fieldNames(jsonTree.get(0)));
+		assertThat(fieldNames(cborTree.get(1))).isEqualTo(fieldNames(jsonTree.get(1)));
+	}
+
+	@Test
+	void preEncodedJsonMatchesTheSocketServersJson() throws Exception {
+		Message message = message(1, new Attachment("blob", "audio/webm", 1234));
+
+		// The server serializes event arguments as an array, the pre-encoded one is copied in verbatim
+		String preEncoded = SOCKET_MAPPER.writeValueAsString(List.of("newMessage", PreEncodedJson.of(message)));
+		String direct = SOCKET_MAPPER.writeValueAsString(List.of("newMessage", message));
+
+		assertThat(preEncoded).isEqualTo(direct);
+		assertThat(SOCKET_MAPPER.writeValueAsString(PreEncodedJson.of("Join the room first")))
+				.isEqualTo(SOCKET_MAPPER.writeValueAsString("Join the room first"));
+	}
+
+	private static List<String> fieldNames(JsonNode node) {
+		List<String> names = new ArrayList<>();
+		node.fieldNames().forEachRemaining(names::add);
+		return names;
+	}
+
+	private static Message message(int n, Attachment voice) {
+		return Message.builder().messageId(String.format("%024x", n)).roomId("room").seq(n).sender("user@example.com")
+				.text(voice == null ? "hello " + n : null).voice(voice).sentAt(new Date(1_600_000_000_000L + n)).build();
+	}
+}
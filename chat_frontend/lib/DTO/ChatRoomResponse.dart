@@ -31,13 +31,13 @@ class ChatRoomDTO {
     return ChatRoomDTO(
       id: json['id'],
       roomName: json['roomName'],
-      groupAdmins: List<String>.from(json['groupAdmins']),
-      participantIds: List<String>.from(json['participantIds']),
+      groupAdmins: List<String>.from(json['groupAdmins'] ?? []),
+      participantIds: List<String>.from(json['participantIds'] ?? []),
       messages: List<MessageDTO>.from(
-        json['messages'].map((messageJson) => MessageDTO.fromJson(messageJson)),
+        (json['messages'] ?? []).map((messageJson) => MessageDTO.fromJson(messageJson)),
       ),
-      createdAt: json['createdAt'].toString(),
-      createdBy: json['createdBy'],
+      createdAt: (json['createdAt'] ?? json['lastActivityAt']).toString(),
+      createdBy: json['createdBy'] ?? '',
     );
   }
 }
@@ -146,6 +146,17 @@ class _ChatWidgetState extends State<ChatWidget> {
 
       scrollToBottom();
     });
+    socket?.on('newMessages', (data) {
+      final batch = (data as List<dynamic>)
+          .map((json) => MessageDTO.fromJson(json as Map<String, dynamic>))
+          .toList();
+
+      setState(() {
+        messages?.addAll(batch);
+      });
+
+      scrollToBottom();
+    });
 
     socket?.connect();
   }